@@ -1,6 +1,7 @@
 package org.daisy.streamline.cli;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Provides the information needed by an application argument.
@@ -25,10 +26,33 @@ public class Argument extends Definition {
 	 * @param values the list of acceptable values
 	 */
 	public Argument(String name, String desc, List<Definition> values) {
-		super(name, desc);
+		this(name, desc, null, values);
+	}
+
+	/**
+	 * Creates a new Argument.
+	 * @param name the name of the argument
+	 * @param desc the description of the argument, used if lazyDesc is null
+	 * @param lazyDesc the description supplier, or null
+	 * @param values the list of acceptable values, or null
+	 */
+	Argument(String name, String desc, Supplier<String> lazyDesc, List<Definition> values) {
+		super(name, desc, lazyDesc);
 		this.values = values;
 	}
 
+	/**
+	 * Creates a new Argument with a description that is supplied when it is needed.
+	 * @param name the name of the argument
+	 * @param desc the description supplier
+	 * @param values the list of acceptable values, or null
+	 * @return returns a new Argument
+	 * @see Definition#create(String, Supplier)
+	 */
+	public static Argument create(String name, Supplier<String> desc, List<Definition> values) {
+		return new Argument(name, null, requireSupplier(desc), values);
+	}
+
 	/**
 	 * Returns true if this argument has a finite list of acceptable values.
 	 * @return returns true if a finite list of acceptable values exist, false otherwise
@@ -0,0 +1,537 @@
+package org.daisy.streamline.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * <p>Provides a compact binary form of {@link CommandDetails}. A catalog is
+ * typically written at build time, and loaded at startup instead of creating
+ * the arguments from their original sources.</p>
+ * <p>A loaded catalog is read directly from the (memory mapped) data. Arguments
+ * are created when they are first accessed, and descriptions are decoded each time they
+ * are requested, for example when help is displayed. The switches are created
+ * all at once, the first time they are requested. The option constraints are
+ * small, and are decoded when the catalog is loaded.</p>
+ * <pre>
+ * // at build time
+ * try (OutputStream os = Files.newOutputStream(path)) {
+ * 	CommandCatalog.write(details, os);
+ * }
+ * // at startup
+ * CommandParser parser = CommandParser.create(CommandCatalog.load(path));
+ * </pre>
+ * @author Joel Håkansson
+ */
+public class CommandCatalog {
+	private static final int MAGIC = 0x434d4443; // "CMDC"
+	private static final int VERSION = 2;
+	// magic, version, name, description, required count, optional count, value count, switch count,
+	// constraints size, string pool offset
+	private static final int HEADER_SIZE = 10*4;
+	// name, description, default, value count, first value
+	private static final int ARGUMENT_SIZE = 5*4;
+	// name, description
+	private static final int VALUE_SIZE = 2*4;
+	// key, alias, name, value, description
+	private static final int SWITCH_SIZE = 5*4;
+	private static final int NULL = -1;
+
+	private CommandCatalog() {}
+
+	/**
+	 * Writes the command details, including the option constraints, to the output
+	 * stream. All descriptions are requested. The output stream is not closed.
+	 * @param details the command details
+	 * @param os the output stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(CommandDetails details, OutputStream os) throws IOException {
+		StringPool pool = new StringPool();
+		List<Argument> required = nonNull(details.getRequiredArguments());
+		List<OptionalArgument> optional = nonNull(details.getOptionalArguments());
+		SwitchMap sm = details.getSwitches();
+		List<SwitchArgument> switches = sm!=null?new ArrayList<>(sm.values()):Collections.emptyList();
+		List<Definition> values = new ArrayList<>();
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(records);
+		for (Argument a : required) {
+			writeArgument(out, pool, values, a, null);
+		}
+		for (OptionalArgument a : optional) {
+			writeArgument(out, pool, values, a, a.getDefault());
+		}
+		for (Definition d : values) {
+			out.writeInt(pool.add(d.getName()));
+			out.writeInt(pool.add(d.getDescription()));
+		}
+		for (SwitchArgument s : switches) {
+			out.writeInt(s.getKey()!=null?s.getKey():NULL);
+			out.writeInt(pool.add(s.getAlias()));
+			out.writeInt(pool.add(s.getName()));
+			out.writeInt(pool.add(s.getValue()));
+			out.writeInt(pool.add(s.getDescription()));
+		}
+		int recordsSize = out.size();
+		writeConstraints(out, pool, details.getConstraints());
+		out.flush();
+
+		DataOutputStream ret = new DataOutputStream(os);
+		ret.writeInt(MAGIC);
+		ret.writeInt(VERSION);
+		ret.writeInt(pool.add(details.getName()));
+		ret.writeInt(pool.add(details.getDescription()));
+		ret.writeInt(required.size());
+		ret.writeInt(optional.size());
+		ret.writeInt(values.size());
+		ret.writeInt(switches.size());
+		ret.writeInt(records.size() - recordsSize);
+		ret.writeInt(HEADER_SIZE + records.size());
+		records.writeTo(ret);
+		pool.writeTo(ret);
+		ret.flush();
+	}
+
+	private static <T> List<T> nonNull(List<T> list) {
+		return list!=null?list:Collections.emptyList();
+	}
+
+	private static void writeArgument(DataOutputStream out, StringPool pool, List<Definition> values, Argument a, String def) throws IOException {
+		out.writeInt(pool.add(a.getName()));
+		out.writeInt(pool.add(a.getDescription()));
+		out.writeInt(pool.add(def));
+		if (a.getValues()==null) {
+			out.writeInt(NULL);
+			out.writeInt(0);
+		} else {
+			out.writeInt(a.getValues().size());
+			out.writeInt(values.size());
+			values.addAll(a.getValues());
+		}
+	}
+
+	/**
+	 * Writes the constraints as a sequence of ints: the number of mutually exclusive groups
+	 * followed by the size and option names of each group, the number of requirements followed
+	 * by the option, the size and the required option names of each requirement, and
+	 * the number of conditional defaults followed by the four strings of each default.
+	 */
+	private static void writeConstraints(DataOutputStream out, StringPool pool, OptionConstraints c) throws IOException {
+		List<List<String>> exclusive = c!=null?c.getMutuallyExclusive():Collections.emptyList();
+		List<OptionConstraints.Requirement> requirements = c!=null?c.getRequirements():Collections.emptyList();
+		List<OptionConstraints.ConditionalDefault> defaults = c!=null?c.getConditionalDefaults():Collections.emptyList();
+		out.writeInt(exclusive.size());
+		for (List<String> group : exclusive) {
+			writeStrings(out, pool, group);
+		}
+		out.writeInt(requirements.size());
+		for (OptionConstraints.Requirement r : requirements) {
+			out.writeInt(pool.add(r.getOption()));
+			writeStrings(out, pool, r.getRequired());
+		}
+		out.writeInt(defaults.size());
+		for (OptionConstraints.ConditionalDefault d : defaults) {
+			out.writeInt(pool.add(d.getWhenOption()));
+			out.writeInt(pool.add(d.getWhenValue()));
+			out.writeInt(pool.add(d.getOption()));
+			out.writeInt(pool.add(d.getValue()));
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, StringPool pool, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			out.writeInt(pool.add(s));
+		}
+	}
+
+	/**
+	 * Collects the strings of a catalog. Each distinct string is stored once, as its
+	 * length in bytes followed by its UTF-8 encoding.
+	 */
+	private static class StringPool {
+		private final Map<String, Integer> offsets = new HashMap<>();
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(data);
+
+		private int add(String s) throws IOException {
+			if (s==null) {
+				return NULL;
+			}
+			Integer ret = offsets.get(s);
+			if (ret==null) {
+				ret = data.size();
+				byte[] b = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(b.length);
+				out.write(b);
+				offsets.put(s, ret);
+			}
+			return ret;
+		}
+
+		private void writeTo(OutputStream os) throws IOException {
+			out.flush();
+			data.writeTo(os);
+		}
+	}
+
+	/**
+	 * Loads a catalog by memory mapping the file. The file should not be modified
+	 * while the catalog is in use.
+	 * @param path the path to the catalog
+	 * @return returns the command details
+	 * @throws IOException if the file cannot be read, or if it isn't a valid catalog
+	 */
+	public static CommandDetails load(Path path) throws IOException {
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping remains valid after the channel is closed
+			return load(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		}
+	}
+
+	/**
+	 * Loads a catalog from an input stream, for example a resource. The data is read
+	 * into memory, but the arguments are still created on demand. The input stream is not
+	 * closed.
+	 * @param is the input stream
+	 * @return returns the command details
+	 * @throws IOException if the stream cannot be read, or if it isn't a valid catalog
+	 */
+	public static CommandDetails load(InputStream is) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = is.read(buf))>-1) {
+			os.write(buf, 0, len);
+		}
+		return load(ByteBuffer.wrap(os.toByteArray()));
+	}
+
+	private static CommandDetails load(ByteBuffer data) throws IOException {
+		if (data.limit()<HEADER_SIZE || data.getInt(0)!=MAGIC) {
+			throw new IOException("Not a command catalog.");
+		}
+		if (data.getInt(4)!=VERSION) {
+			throw new IOException("Unsupported catalog version: " + data.getInt(4));
+		}
+		long required = data.getInt(16);
+		long optional = data.getInt(20);
+		long values = data.getInt(24);
+		long switches = data.getInt(28);
+		long constraints = data.getInt(32);
+		long records = HEADER_SIZE + (required+optional)*ARGUMENT_SIZE + values*VALUE_SIZE + switches*SWITCH_SIZE + constraints;
+		if (required<0 || optional<0 || values<0 || switches<0 || constraints<0
+				|| records!=data.getInt(36) || records>data.limit()) {
+			throw new IOException("Damaged command catalog.");
+		}
+		validate(data, (int)required+(int)optional, (int)values, (int)switches);
+		int start = (int)(records - constraints);
+		return new MappedDetails(data, readConstraints(data, start, (int)records));
+	}
+
+	/**
+	 * Reads the constraints written by {@link #writeConstraints(DataOutputStream, StringPool, OptionConstraints)}.
+	 * @param data the data
+	 * @param start the position of the constraints
+	 * @param end the position after the constraints
+	 * @return returns the constraints
+	 * @throws IOException if the constraints are damaged
+	 */
+	private static OptionConstraints readConstraints(ByteBuffer data, int start, int end) throws IOException {
+		ConstraintsReader r = new ConstraintsReader(data, start, end);
+		OptionConstraints.Builder builder = new OptionConstraints.Builder();
+		try {
+			for (int i=r.count(); i>0; i--) {
+				builder.mutuallyExclusive(r.strings());
+			}
+			for (int i=r.count(); i>0; i--) {
+				builder.requires(r.string(), r.strings());
+			}
+			for (int i=r.count(); i>0; i--) {
+				builder.conditionalDefault(r.string(), r.string(), r.string(), r.string());
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Damaged command catalog, invalid constraint.", e);
+		}
+		if (r.position!=end) {
+			throw new IOException("Damaged command catalog, invalid constraints size.");
+		}
+		return builder.build();
+	}
+
+	private static class ConstraintsReader {
+		private final ByteBuffer data;
+		private final int end;
+		private final int pool;
+		private int position;
+
+		private ConstraintsReader(ByteBuffer data, int start, int end) {
+			this.data = data;
+			this.end = end;
+			this.pool = data.getInt(36);
+			this.position = start;
+		}
+
+		private int count() throws IOException {
+			if (position+4>end) {
+				throw new IOException("Damaged command catalog, invalid constraints size.");
+			}
+			int ret = data.getInt(position);
+			// each entry is at least one int
+			if (ret<0 || ret>(end-position)/4) {
+				throw new IOException("Damaged command catalog, invalid count at " + position);
+			}
+			position += 4;
+			return ret;
+		}
+
+		private String string() throws IOException {
+			if (position+4>end) {
+				throw new IOException("Damaged command catalog, invalid constraints size.");
+			}
+			checkString(data, pool, position);
+			String ret = CommandCatalog.string(data, pool, data.getInt(position));
+			position += 4;
+			return ret;
+		}
+
+		private String[] strings() throws IOException {
+			String[] ret = new String[count()];
+			for (int i=0; i<ret.length; i++) {
+				ret[i] = string();
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Checks that all references in the records are within the data, so that
+	 * a damaged catalog is detected when loaded rather than when an entry is used.
+	 * @param data the data
+	 * @param arguments the number of argument records
+	 * @param values the number of value records
+	 * @param switches the number of switch records
+	 * @throws IOException if a reference is invalid
+	 */
+	private static void validate(ByteBuffer data, int arguments, int values, int switches) throws IOException {
+		int pool = data.getInt(36);
+		checkString(data, pool, 8);
+		checkString(data, pool, 12);
+		int r = HEADER_SIZE;
+		for (int i=0; i<arguments; i++, r+=ARGUMENT_SIZE) {
+			checkString(data, pool, r);
+			checkString(data, pool, r+4);
+			checkString(data, pool, r+8);
+			int count = data.getInt(r+12);
+			int first = data.getInt(r+16);
+			if (count!=NULL && (count<0 || first<0 || (long)first+count>values)) {
+				throw new IOException("Damaged command catalog, invalid values at " + r);
+			}
+		}
+		for (int i=0; i<values; i++, r+=VALUE_SIZE) {
+			checkString(data, pool, r);
+			checkString(data, pool, r+4);
+		}
+		for (int i=0; i<switches; i++, r+=SWITCH_SIZE) {
+			int key = data.getInt(r);
+			if (key!=NULL && (key<0 || key>Character.MAX_VALUE)) {
+				throw new IOException("Damaged command catalog, invalid key at " + r);
+			}
+			checkString(data, pool, r+4);
+			checkString(data, pool, r+8);
+			checkString(data, pool, r+12);
+			checkString(data, pool, r+16);
+		}
+	}
+
+	private static void checkString(ByteBuffer data, int pool, int position) throws IOException {
+		int offset = data.getInt(position);
+		if (offset==NULL) {
+			return;
+		}
+		long start = (long)pool + offset;
+		if (offset<0 || start+4>data.limit()) {
+			throw new IOException("Damaged command catalog, invalid string at " + position);
+		}
+		int len = data.getInt((int)start);
+		if (len<0 || start+4+len>data.limit()) {
+			throw new IOException("Damaged command catalog, invalid string at " + position);
+		}
+	}
+
+	private static String string(ByteBuffer data, int pool, int offset) {
+		if (offset==NULL) {
+			return null;
+		}
+		int pos = pool + offset;
+		int len = data.getInt(pos);
+		byte[] b = new byte[len];
+		// a duplicate is used, so that concurrent reads don't share a position
+		ByteBuffer d = data.duplicate();
+		d.position(pos+4);
+		d.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static class MappedDetails implements CommandDetails {
+		private final ByteBuffer data;
+		private final int requiredCount;
+		private final int optionalCount;
+		private final int valueCount;
+		private final int switchCount;
+		private final int pool;
+		private final String name;
+		private final List<Argument> required;
+		private final List<OptionalArgument> optional;
+		private final OptionConstraints constraints;
+		private volatile SwitchMap switches;
+
+		private MappedDetails(ByteBuffer data, OptionConstraints constraints) {
+			this.data = data;
+			this.constraints = constraints;
+			this.requiredCount = data.getInt(16);
+			this.optionalCount = data.getInt(20);
+			this.valueCount = data.getInt(24);
+			this.switchCount = data.getInt(28);
+			this.pool = data.getInt(36);
+			this.name = string(data.getInt(8));
+			this.required = new LazyList<Argument>(requiredCount) {
+				@Override
+				Argument create(int index) {
+					int r = HEADER_SIZE + index*ARGUMENT_SIZE;
+					return Argument.create(string(data.getInt(r)), description(r+4), values(r));
+				}
+			};
+			this.optional = new LazyList<OptionalArgument>(optionalCount) {
+				@Override
+				OptionalArgument create(int index) {
+					int r = HEADER_SIZE + (requiredCount+index)*ARGUMENT_SIZE;
+					return OptionalArgument.create(string(data.getInt(r)), description(r+4), values(r), string(data.getInt(r+8)));
+				}
+			};
+		}
+
+		/**
+		 * Gets the values of the argument record at the specified position.
+		 * @param r the position of the record
+		 * @return returns the list of values, or null
+		 */
+		private List<Definition> values(int r) {
+			int count = data.getInt(r+12);
+			if (count==NULL) {
+				return null;
+			}
+			int first = data.getInt(r+16);
+			int start = HEADER_SIZE + (requiredCount+optionalCount)*ARGUMENT_SIZE;
+			return new LazyList<Definition>(count) {
+				@Override
+				Definition create(int index) {
+					int v = start + (first+index)*VALUE_SIZE;
+					return Definition.create(string(data.getInt(v)), description(v+4));
+				}
+			};
+		}
+
+		private String string(int offset) {
+			return CommandCatalog.string(data, pool, offset);
+		}
+
+		private Supplier<String> description(int position) {
+			return () -> string(data.getInt(position));
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getDescription() {
+			return string(data.getInt(12));
+		}
+
+		@Override
+		public List<Argument> getRequiredArguments() {
+			return required;
+		}
+
+		@Override
+		public List<OptionalArgument> getOptionalArguments() {
+			return optional;
+		}
+
+		@Override
+		public SwitchMap getSwitches() {
+			SwitchMap ret = switches;
+			if (ret==null) {
+				SwitchMap.Builder builder = new SwitchMap.Builder();
+				int start = HEADER_SIZE + (requiredCount+optionalCount)*ARGUMENT_SIZE + valueCount*VALUE_SIZE;
+				for (int i=0; i<switchCount; i++) {
+					int s = start + i*SWITCH_SIZE;
+					int key = data.getInt(s);
+					builder.addSwitch(SwitchArgument.create(
+							key!=NULL?Character.valueOf((char)key):null,
+							string(data.getInt(s+4)),
+							string(data.getInt(s+8)),
+							string(data.getInt(s+12)),
+							description(s+16)));
+				}
+				ret = builder.build();
+				switches = ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public OptionConstraints getConstraints() {
+			return constraints;
+		}
+	}
+
+	/**
+	 * Provides a read-only list whose elements are created when first accessed.
+	 * @param <T> the type of elements
+	 */
+	private abstract static class LazyList<T> extends AbstractList<T> {
+		private final Object[] elements;
+
+		private LazyList(int size) {
+			this.elements = new Object[size];
+		}
+
+		abstract T create(int index);
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(int index) {
+			Object ret = elements[index];
+			if (ret==null) {
+				// The elements are immutable, so creating one twice
+				// in different threads is harmless
+				ret = create(index);
+				elements[index] = ret;
+			}
+			return (T)ret;
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+	}
+}
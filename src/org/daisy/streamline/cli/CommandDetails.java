@@ -43,4 +43,12 @@ public interface CommandDetails {
 		return new SwitchMap.Builder().build();
 	}
 
+	/**
+	 * Gets the constraints between optional arguments.
+	 * @return returns the constraints
+	 */
+	public default OptionConstraints getConstraints() {
+		return new OptionConstraints.Builder().build();
+	}
+
 }
@@ -1,6 +1,14 @@
 package org.daisy.streamline.cli;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Provides a command parser.
@@ -9,10 +17,20 @@ import java.io.PrintStream;
  */
 public class CommandParser {
 	private final CommandDetails details;
+	// Read on first use, so that the switches aren't created unless they are needed
+	private SwitchMap switches;
+	private volatile boolean switchesRead;
+	private final CompiledConstraints constraints;
 	private final String delimiter;
 	private final String optionalArgumentPrefix;
 	private final String switchArgumentPrefix;
 	private final int displayWidth;
+	private final String inputMarker;
+	private final char inputDelimiter;
+	private final InputStream input;
+	// Created on first use, and shared by all results, so that nothing read ahead is lost
+	private DelimitedInputIterator inputArguments;
+	private volatile HelpIndex helpIndex;
 
 	public static class Builder {
 		private final CommandDetails details;
@@ -21,6 +39,9 @@ public class CommandParser {
 		private String optionalArgumentPrefix = "--";
 		private String switchArgumentPrefix = "-";
 		private int displayWidth = 50;
+		private String inputMarker = null;
+		private char inputDelimiter = '\n';
+		private InputStream input = System.in;
 		
 		/**
 		 * Creates a new builder
@@ -72,6 +93,45 @@ public class CommandParser {
 			return this;
 		}
 
+		/**
+		 * Sets the argument which indicates that further unnamed/positional arguments
+		 * should be read from the input, typically "-". The arguments read from the input
+		 * are available through {@link CommandParserResult#getInputArguments()}.
+		 * The default is null, which means that the arguments are not read from the input.
+		 * The input is read by one reader for the lifetime of the parser. If the
+		 * marker is used in several results of the same parser, each result continues
+		 * where the previous one stopped reading.
+		 * @param value the marker
+		 * @return returns this object
+		 */
+		public Builder inputMarker(String value) {
+			this.inputMarker = value;
+			return this;
+		}
+
+		/**
+		 * Sets the delimiter between arguments read from the input. Use
+		 * '\0' for input produced with <code>find -print0</code>. The
+		 * default is '\n'.
+		 * @param value the delimiter
+		 * @return returns this object
+		 */
+		public Builder inputDelimiter(char value) {
+			this.inputDelimiter = value;
+			return this;
+		}
+
+		/**
+		 * Sets the input to read arguments from when the input marker is found.
+		 * The default is System.in.
+		 * @param value the input stream
+		 * @return returns this object
+		 */
+		public Builder input(InputStream value) {
+			this.input = value;
+			return this;
+		}
+
 		/**
 		 * Builds the parser.
 		 * @return returns a new instance
@@ -87,10 +147,18 @@ public class CommandParser {
 	 */
 	private CommandParser(Builder builder) {
 		this.details = builder.details;
+		this.switches = null;
+		this.switchesRead = false;
+		OptionConstraints c = details.getConstraints();
+		this.constraints = c!=null?new CompiledConstraints(c):null;
 		this.delimiter = builder.delimiter;
 		this.optionalArgumentPrefix = builder.optionalArgumentPrefix;
 		this.switchArgumentPrefix = builder.switchArgumentPrefix;
 		this.displayWidth = builder.displayWidth;
+		this.inputMarker = builder.inputMarker;
+		this.inputDelimiter = builder.inputDelimiter;
+		this.input = builder.input;
+		this.inputArguments = null;
 	}
 	
 	/**
@@ -102,6 +170,28 @@ public class CommandParser {
 		return new CommandParser.Builder(details).build();
 	}
 
+	/**
+	 * Gets the CLI details.
+	 * @return returns the details
+	 */
+	public CommandDetails getDetails() {
+		return details;
+	}
+
+	/**
+	 * Gets the switches. The switches are read from the CLI details once, the first
+	 * time they are needed, so that the parser can be reused without rebuilding them.
+	 * @return returns the switches, or null if the CLI does not have any switches
+	 */
+	public SwitchMap getSwitches() {
+		if (!switchesRead) {
+			// if two threads get here at once, both read the switches, which is harmless
+			switches = details.getSwitches();
+			switchesRead = true;
+		}
+		return switches;
+	}
+
 	/**
 	 * Gets the key/value delimiter.
 	 * @return returns the delimiter
@@ -133,35 +223,100 @@ public class CommandParser {
 	 */
 	public CommandParserResult parse(String[] args) {
 		String[] t;
-		SwitchMap switches = details.getSwitches();
 		DefaultCommandParserResult.Builder builder = new DefaultCommandParserResult.Builder();
 		for (String s : args) {
 			s = s.trim();
+			if (inputMarker!=null && s.equals(inputMarker)) {
+				builder.setInput(getInputArguments());
+				continue;
+			}
 			t = s.split(delimiter, 2);
 			if (s.startsWith(optionalArgumentPrefix) && t.length<=2) {
 				if (t.length==2) {
 					builder.addOptional(t[0].substring(optionalArgumentPrefix.length()), t[1]);
 				} else {
-					SwitchArgument sc = switches.get(s.substring(optionalArgumentPrefix.length()));
+					SwitchMap switches = getSwitches();
+					SwitchArgument sc = switches!=null?switches.get(s.substring(optionalArgumentPrefix.length())):null;
 					if (sc!=null) {
 						builder.addOptional(sc.getName(), sc.getValue());
 					} else {
 						builder.addRequired(s);
 					}
 				}
-			} else if (s.startsWith(switchArgumentPrefix) && s.length()==switchArgumentPrefix.length()+1) {
-				SwitchArgument sc = switches.get(s.substring(switchArgumentPrefix.length()));
-				if (sc!=null) {
-					builder.addOptional(sc.getName(), sc.getValue());
-				} else {
+			} else if (s.startsWith(switchArgumentPrefix) && s.length()>switchArgumentPrefix.length()) {
+				if (!addSwitches(s, builder)) {
 					builder.addRequired(s);
 				}
 			} else {
 				builder.addRequired(s);
 			}
 		}
+		if (constraints!=null) {
+			constraints.applyDefaults(builder);
+		}
 		return builder.build();
 	}
+
+	private synchronized DelimitedInputIterator getInputArguments() {
+		if (inputArguments==null) {
+			inputArguments = new DelimitedInputIterator(new InputStreamReader(input, Charset.defaultCharset()), inputDelimiter);
+		}
+		return inputArguments;
+	}
+
+	/**
+	 * Gets the violations of the option constraints of the CLI details in
+	 * the supplied result.
+	 * @param result the parser result
+	 * @return returns a list of messages, empty if there are no violations
+	 * @see CommandDetails#getConstraints()
+	 */
+	public List<String> getViolations(CommandParserResult result) {
+		if (constraints==null) {
+			return new ArrayList<>();
+		}
+		return constraints.getViolations(result.getOptional());
+	}
+
+	/**
+	 * Validates the supplied result against the option constraints of the CLI details,
+	 * and prints the violations, if any.
+	 * @param result the parser result
+	 * @param ps the print stream to print violations to
+	 * @return returns {@link ExitCode#ARGUMENT_ERROR} if the constraints are violated,
+	 * {@link ExitCode#OK} otherwise
+	 */
+	public ExitCode validate(CommandParserResult result, PrintStream ps) {
+		List<String> violations = getViolations(result);
+		violations.forEach(ps::println);
+		return violations.isEmpty()?ExitCode.OK:ExitCode.ARGUMENT_ERROR;
+	}
+
+	/**
+	 * Adds the switches in the supplied string, for example -c or a
+	 * cluster of switches such as -cdv, to the builder. Nothing is added
+	 * unless every character in the string is a known switch key.
+	 * @param s the string
+	 * @param builder the builder
+	 * @return returns true if the switches were added, false otherwise
+	 */
+	private boolean addSwitches(String s, DefaultCommandParserResult.Builder builder) {
+		SwitchMap switches = getSwitches();
+		if (switches==null) {
+			return false;
+		}
+		int start = switchArgumentPrefix.length();
+		for (int i=start; i<s.length(); i++) {
+			if (switches.get(s.charAt(i))==null) {
+				return false;
+			}
+		}
+		for (int i=start; i<s.length(); i++) {
+			SwitchArgument sc = switches.get(s.charAt(i));
+			builder.addOptional(sc.getName(), sc.getValue());
+		}
+		return true;
+	}
 	
 	/**
 	 * Displays a help text for the UI based on the implementation of 
@@ -169,6 +324,10 @@ public class CommandParser {
 	 * @param ps The print stream to use, typically System.out
 	 */
 	public void displayHelp(PrintStream ps) {
+		print(ps, this::writeHelp);
+	}
+
+	private void writeHelp(PrintWriter ps) {
 		ps.println("NAME");
 		ps.println("\t"+details.getName());
 		ps.println();
@@ -190,11 +349,11 @@ public class CommandParser {
 		ps.println();
 		if ((details.getRequiredArguments()!=null && details.getRequiredArguments().size()>0)||
 				(details.getOptionalArguments()!=null && details.getOptionalArguments().size()>0)||
-				(details.getSwitches()!=null && details.getSwitches().values().size()>0)) {
+				(getSwitches()!=null && getSwitches().values().size()>0)) {
 			ps.println("OPTIONS");
-			displayRequired(ps);
-			displayOptions(ps);
-			displaySwitches(ps);
+			writeRequired(ps);
+			writeOptions(ps);
+			writeSwitches(ps);
 		}
 	}
 
@@ -203,77 +362,207 @@ public class CommandParser {
 	 * @param ps the print stream
 	 */
 	public void displayRequired(PrintStream ps) {
+		print(ps, this::writeRequired);
+	}
+
+	private void writeRequired(PrintWriter ps) {
 		for (Argument a : details.getRequiredArguments()) {
-			ps.println("\t<" + a.getName()+ ">");
-			format(ps, a.getDescription(), "\t\t", displayWidth);
+			writeRequired(ps, a);
 			if (a.hasValues()) {
 				ps.println("\t\tValues:");
 				for (Definition value : a.getValues()) {
-					ps.println("\t\t\t'"+value.getName()+"'");
-					format(ps, value.getDescription(), "\t\t\t\t", displayWidth);
+					writeValue(ps, a, value);
 				}
 				ps.println();
 			}
 		}
 	}
 
+	private void writeRequired(PrintWriter ps, Argument a) {
+		ps.println("\t<" + a.getName()+ ">");
+		format(ps, a.getDescription(), "\t\t", displayWidth);
+	}
+
 	/**
 	 * Prints the optional arguments to the specified stream.
 	 * @param ps the print stream
 	 */
 	public void displayOptions(PrintStream ps) {
+		print(ps, this::writeOptions);
+	}
+
+	private void writeOptions(PrintWriter ps) {
 		if (details.getOptionalArguments()==null) {
 			return;
 		}
 		for (OptionalArgument a : details.getOptionalArguments()) {
-			ps.print("\t" + getOptionalArgumentPrefix() + a.getName() + getKeyValueDelimiter() + "<value>");
-			if (!a.hasValues()) {
-				ps.print(" (default '"  + a.getDefault() + "')");
-			}
-			ps.println();
-			format(ps, a.getDescription(), "\t\t", displayWidth);
+			writeOption(ps, a);
 			if (a.hasValues()) {
 				ps.println("\t\tValues:");
 				for (Definition value : a.getValues()) {
-					ps.print("\t\t\t'"+value.getName() + "'");
-					if (value.getName().equals(a.getDefault())) {
-						ps.println(" (default)");
-					} else {
-						ps.println();
-					}
-					format(ps, value.getDescription(), "\t\t\t\t", displayWidth);
+					writeValue(ps, a, value);
 				}
 			}
 			ps.println();
 		}
 	}
 
+	private void writeOption(PrintWriter ps, OptionalArgument a) {
+		ps.print("\t" + getOptionalArgumentPrefix() + a.getName() + getKeyValueDelimiter() + "<value>");
+		if (!a.hasValues()) {
+			ps.print(" (default '"  + a.getDefault() + "')");
+		}
+		ps.println();
+		format(ps, a.getDescription(), "\t\t", displayWidth);
+	}
+
+	private void writeValue(PrintWriter ps, Argument a, Definition value) {
+		ps.print("\t\t\t'"+value.getName() + "'");
+		if (a instanceof OptionalArgument && value.getName().equals(((OptionalArgument)a).getDefault())) {
+			ps.println(" (default)");
+		} else {
+			ps.println();
+		}
+		format(ps, value.getDescription(), "\t\t\t\t", displayWidth);
+	}
+
 	/**
 	 * Prints switches to the specified stream. 
 	 * @param ps the print stream
 	 */
 	public void displaySwitches(PrintStream ps) {
-		if (details.getSwitches()==null) {
+		print(ps, this::writeSwitches);
+	}
+
+	private void writeSwitches(PrintWriter ps) {
+		SwitchMap switches = getSwitches();
+		if (switches==null) {
 			return;
 		}
-		for (SwitchArgument a : details.getSwitches().values()) {
-			ps.print("\t");
+		for (SwitchArgument a : switches.values()) {
+			writeSwitch(ps, a);
+			ps.println();
+		}
+	}
+
+	private void writeSwitch(PrintWriter ps, SwitchArgument a) {
+		ps.print("\t");
+		if (a.getKey()!=null) {
+			ps.print(getSwitchArgumentPrefix() + a.getKey());
+		}
+		if (a.getAlias()!=null) {
 			if (a.getKey()!=null) {
-				ps.print(getSwitchArgumentPrefix() + a.getKey());
+				ps.print(", ");
 			}
-			if (a.getAlias()!=null) {
-				if (a.getKey()!=null) {
-					ps.print(", ");
+			ps.print(getOptionalArgumentPrefix() + a.getAlias());
+		}
+		ps.println();
+		format(ps, a.getDescription(), "\t\t", displayWidth);
+	}
+
+	/**
+	 * Prints the parts of the help text that match the search term to the specified
+	 * stream. The term is matched against the beginning of the words in the names,
+	 * switch keys, aliases and descriptions of the arguments and their values. If the term
+	 * contains several words, all of them must match. This can be used to implement
+	 * <code>--help=&lt;term&gt;</code>, for example:
+	 * <pre>
+	 * String term = result.getOptional().get("help");
+	 * if (term!=null) {
+	 *     parser.displayHelp(System.out, term);
+	 * }
+	 * </pre>
+	 * The search index is built the first time this method is called.
+	 * @param ps the print stream
+	 * @param term the search term
+	 */
+	public void displayHelp(PrintStream ps, String term) {
+		List<HelpIndex.Entry> matches = getHelpIndex().search(term);
+		print(ps, pw->{
+			if (matches.isEmpty()) {
+				pw.println("No matches for '" + term + "'");
+				return;
+			}
+			// the argument whose header was printed last, and whether its values header has been printed
+			Definition current = null;
+			boolean values = false;
+			for (HelpIndex.Entry e : matches) {
+				Definition header = e.getKind()==HelpIndex.Kind.VALUE?e.getOwner():e.getDefinition();
+				if (header!=current) {
+					if (current!=null) {
+						pw.println();
+					}
+					current = header;
+					values = false;
+					if (header instanceof OptionalArgument) {
+						writeOption(pw, (OptionalArgument)header);
+					} else if (header instanceof SwitchArgument) {
+						writeSwitch(pw, (SwitchArgument)header);
+					} else {
+						writeRequired(pw, (Argument)header);
+					}
+				}
+				if (e.getKind()==HelpIndex.Kind.VALUE) {
+					if (!values) {
+						pw.println("\t\tValues:");
+						values = true;
+					}
+					writeValue(pw, e.getOwner(), e.getDefinition());
 				}
-				ps.print(getOptionalArgumentPrefix() + a.getAlias());
 			}
-			ps.println();
-			format(ps, a.getDescription(), "\t\t", displayWidth);
-			ps.println();
+			pw.println();
+		});
+	}
+
+	private HelpIndex getHelpIndex() {
+		HelpIndex ret = helpIndex;
+		if (ret==null) {
+			List<HelpIndex.Entry> entries = new ArrayList<>();
+			addEntries(entries, HelpIndex.Kind.REQUIRED, details.getRequiredArguments());
+			addEntries(entries, HelpIndex.Kind.OPTION, details.getOptionalArguments());
+			SwitchMap switches = getSwitches();
+			if (switches!=null) {
+				for (SwitchArgument a : switches.values()) {
+					entries.add(new HelpIndex.Entry(HelpIndex.Kind.SWITCH, a, null));
+				}
+			}
+			ret = new HelpIndex(entries);
+			// if two threads build the index at the same time, the result is the same
+			helpIndex = ret;
 		}
+		return ret;
+	}
+
+	private static void addEntries(List<HelpIndex.Entry> entries, HelpIndex.Kind kind, List<? extends Argument> args) {
+		if (args==null) {
+			return;
+		}
+		for (Argument a : args) {
+			entries.add(new HelpIndex.Entry(kind, a, null));
+			if (a.hasValues()) {
+				for (Definition value : a.getValues()) {
+					entries.add(new HelpIndex.Entry(HelpIndex.Kind.VALUE, value, a));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints the text produced by the writer to the print stream in
+	 * a single call, rather than one fragment at a time.
+	 * @param ps the print stream
+	 * @param writer the writer
+	 */
+	private static void print(PrintStream ps, Consumer<PrintWriter> writer) {
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		writer.accept(pw);
+		pw.flush();
+		ps.print(sw.toString());
+		ps.flush();
 	}
 
-	private void format(PrintStream ps, String str, String prefix, int w) {
+	private void format(PrintWriter ps, String str, String prefix, int w) {
 		while (str.length()>w) {
 			int i = w;
 			while (i>0 && !Character.isWhitespace(str.charAt(i))) {
@@ -1,7 +1,9 @@
 package org.daisy.streamline.cli;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * Provides a parser result.
@@ -18,17 +20,57 @@ public interface CommandParserResult {
 	public List<String> getRequired();
 
 	/**
-	 * Gets the optional arguments.
+	 * Gets the unnamed/positional arguments read from the input, if the parser
+	 * has an input marker and the marker was found in the arguments. The
+	 * input is read lazily as the stream is consumed, and the stream can only
+	 * be consumed once. These arguments are not included in {@link #getRequired()}
+	 * or {@link #toMap(String)}.
+	 * 
+	 * @return returns a stream of arguments, or an empty stream if there is no input
+	 * @see CommandParser.Builder#inputMarker(String)
+	 */
+	public default Stream<String> getInputArguments() {
+		return Stream.empty();
+	}
+
+	/**
+	 * Returns true if the parser has an input marker and the marker was found
+	 * in the arguments, that is if {@link #getInputArguments()} reads from the
+	 * input. The input isn't read by this method.
+	 * 
+	 * @return returns true if there are input arguments, false otherwise
+	 */
+	public default boolean hasInputArguments() {
+		return false;
+	}
+
+	/**
+	 * Gets the optional arguments. If an optional argument occurs more
+	 * than once, the last value is used.
 	 * 
 	 * @return returns the optional arguments
 	 */
 	public Map<String, String> getOptional();
 
 	/**
-	 * Converts the command parser result into a key-value map.
+	 * Gets all values of an optional argument, in the order they occurred.
+	 * 
+	 * @param key the name of the optional argument
+	 * @return returns a list of values, or an empty list if the argument is not present
+	 */
+	public default List<String> getOptionalValues(String key) {
+		Map<String, String> opts = getOptional();
+		return opts.containsKey(key)?Collections.singletonList(opts.get(key)):Collections.emptyList();
+	}
+
+	/**
+	 * Converts the command parser result into a key-value map. The returned
+	 * map is read-only, copy it in order to modify it. Repeated calls with
+	 * the same prefix may return the same instance.
 	 * 
 	 * @param prefix the prefix to use for unnamed/positional arguments
-	 * @return returns a map of arguments
+	 * @return returns an unmodifiable view of the arguments, modifying it
+	 * throws an {@link UnsupportedOperationException}
 	 */
 	public Map<String, String> toMap(String prefix);
 
@@ -0,0 +1,399 @@
+package org.daisy.streamline.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Provides a way to run several commands in one invocation, where the
+ * output of each command is the input of the next. For example:</p>
+ * <pre>text2pef input.txt :: pef2text --table=sv</pre>
+ * <p>The commands run concurrently, and the data between them is passed
+ * through in-memory pipes with bounded buffers, so no temporary files are
+ * needed. The exit code of the pipeline is the exit code of the first
+ * command to fail, that is, the first command that completed with another exit code
+ * than {@link ExitCode#OK}. When a command fails, its pipes are closed. As a result, the
+ * neighbouring commands see the end of their input or fail as well, and do not block.
+ * A command may complete successfully without reading all of its input, like
+ * <code>head</code>. The resulting write error in the previous command
+ * is not considered a failure. Error messages caused by closing the pipes
+ * of a failed command are not printed.</p>
+ * @author Joel Håkansson
+ */
+public class CommandPipeline {
+	private final Map<String, Command> commands;
+	private final String separator;
+	private final int bufferSize;
+	private final PrintStream errors;
+
+	/**
+	 * Provides a command in a pipeline.
+	 */
+	@FunctionalInterface
+	public interface Stage {
+		/**
+		 * Runs the command. The command should not close the streams.
+		 * @param args the parsed arguments
+		 * @param in the input, the output of the previous command
+		 * @param out the output, the input of the next command
+		 * @return returns the exit code
+		 * @throws IOException if an I/O error occurs
+		 */
+		public ExitCode run(CommandParserResult args, InputStream in, OutputStream out) throws IOException;
+	}
+
+	private static class Command {
+		private final CommandParser parser;
+		private final Stage stage;
+		private Command(CommandParser parser, Stage stage) {
+			this.parser = parser;
+			this.stage = stage;
+		}
+	}
+
+	/**
+	 * Provides a builder for command pipelines.
+	 */
+	public static class Builder {
+		private final Map<String, Command> commands = new LinkedHashMap<>();
+		private String separator = "::";
+		private int bufferSize = 64*1024;
+		private PrintStream errors = System.err;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Adds a command. The command is invoked using the name of its details.
+		 * @param parser the command parser
+		 * @param stage the command implementation
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the name is already in use
+		 */
+		public Builder addCommand(CommandParser parser, Stage stage) {
+			String name = parser.getDetails().getName();
+			if (commands.put(name, new Command(parser, stage))!=null) {
+				throw new IllegalArgumentException("Name already in use: " + name);
+			}
+			return this;
+		}
+
+		/**
+		 * Sets the argument that separates the commands. The default is "::".
+		 * @param value the separator
+		 * @return returns this object
+		 */
+		public Builder separator(String value) {
+			this.separator = value;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffer used when writing to the next command.
+		 * @param value the buffer size
+		 * @return returns this object
+		 */
+		public Builder bufferSize(int value) {
+			this.bufferSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets the stream to print error messages to. The default is System.err.
+		 * @param value the print stream
+		 * @return returns this object
+		 */
+		public Builder errors(PrintStream value) {
+			this.errors = value;
+			return this;
+		}
+
+		/**
+		 * Builds the pipeline.
+		 * @return returns a new instance
+		 */
+		public CommandPipeline build() {
+			return new CommandPipeline(this);
+		}
+	}
+
+	private CommandPipeline(Builder builder) {
+		this.commands = Collections.unmodifiableMap(new LinkedHashMap<>(builder.commands));
+		this.separator = builder.separator;
+		this.bufferSize = builder.bufferSize;
+		this.errors = builder.errors;
+	}
+
+	/**
+	 * Runs the commands in the supplied arguments. The input and the output
+	 * are not closed.
+	 * @param args the arguments, starting with the name of the first command
+	 * @param in the input of the first command, typically System.in
+	 * @param out the output of the last command, typically System.out
+	 * @return returns the exit code of the first command to fail, or {@link ExitCode#OK}.
+	 * No command is started if the arguments of any command violate its option constraints.
+	 */
+	public ExitCode run(String[] args, InputStream in, OutputStream out) {
+		List<String[]> segments = split(args);
+		List<Command> stages = new ArrayList<>();
+		List<CommandParserResult> parsed = new ArrayList<>();
+		for (String[] s : segments) {
+			if (s.length==0) {
+				errors.println("Missing command");
+				return ExitCode.MISSING_ARGUMENT;
+			}
+			Command c = commands.get(s[0]);
+			if (c==null) {
+				errors.println("Unknown command: " + s[0]);
+				return ExitCode.UNKNOWN_ARGUMENT;
+			}
+			CommandParserResult result = c.parser.parse(Arrays.copyOfRange(s, 1, s.length));
+			ExitCode valid = c.parser.validate(result, errors);
+			if (valid!=ExitCode.OK) {
+				return valid;
+			}
+			stages.add(c);
+			parsed.add(result);
+		}
+		int n = stages.size();
+		// set when a command has completed successfully, before its input is closed
+		AtomicBoolean[] completed = new AtomicBoolean[n];
+		for (int i=0; i<n; i++) {
+			completed[i] = new AtomicBoolean();
+		}
+		InputStream[] ins = new InputStream[n];
+		OutputStream[] outs = new OutputStream[n];
+		SinkOutputStream[] sinks = new SinkOutputStream[n];
+		ins[0] = new UnclosableInputStream(in);
+		outs[n-1] = new UnclosableOutputStream(out);
+		try {
+			for (int i=0; i<n-1; i++) {
+				Pipe pipe = Pipe.open();
+				sinks[i] = new SinkOutputStream(Channels.newOutputStream(pipe.sink()), completed[i+1]);
+				outs[i] = new BufferedOutputStream(sinks[i], bufferSize);
+				ins[i+1] = Channels.newInputStream(pipe.source());
+			}
+		} catch (IOException e) {
+			for (int i=0; i<n-1; i++) {
+				closeQuietly(outs[i]);
+				closeQuietly(ins[i+1]);
+			}
+			errors.println(e.getMessage());
+			return ExitCode.RESOURCE_ERROR;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(n, r->{
+			Thread t = new Thread(r, "pipeline-stage");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			AtomicReference<ExitCode> failure = new AtomicReference<>();
+			List<Future<ExitCode>> results = new ArrayList<>();
+			for (int i=0; i<n; i++) {
+				results.add(executor.submit(newTask(stages.get(i), parsed.get(i), ins[i], outs[i], sinks[i], completed[i], failure)));
+			}
+			for (Future<ExitCode> f : results) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					failure.compareAndSet(null, ExitCode.INTERNAL_ERROR);
+				}
+			}
+			ExitCode ret = failure.get();
+			return ret!=null?ret:ExitCode.OK;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ExitCode.INTERNAL_ERROR;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Callable<ExitCode> newTask(Command c, CommandParserResult args, InputStream in, OutputStream out,
+			SinkOutputStream sink, AtomicBoolean completed, AtomicReference<ExitCode> failure) {
+		return ()->{
+			String name = c.parser.getDetails().getName();
+			try {
+				ExitCode ret;
+				try {
+					ret = c.stage.run(args, in, out);
+				} catch (IOException e) {
+					if (sink!=null && sink.isClosedByNext(e)) {
+						// the next command completed without reading everything, which is fine
+						ret = ExitCode.OK;
+					} else {
+						if (failure.get()==null) {
+							// otherwise, the error is most likely caused by the pipes of the failed command being closed
+							errors.println(name + ": " + e.getMessage());
+						}
+						ret = ExitCode.RESOURCE_ERROR;
+					}
+				} catch (RuntimeException e) {
+					errors.println(name + ": " + e);
+					ret = ExitCode.INTERNAL_ERROR;
+				}
+				// this must happen before the pipes are closed
+				if (ret!=ExitCode.OK) {
+					failure.compareAndSet(null, ret);
+				} else {
+					completed.set(true);
+				}
+				return ret;
+			} finally {
+				// Closing the pipes ends the input of the next command, and
+				// makes the previous command fail rather than block if this
+				// command stopped reading early
+				closeQuietly(out);
+				closeQuietly(in);
+			}
+		};
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c==null) {
+			// not opened
+			return;
+		}
+		try {
+			c.close();
+		} catch (IOException e) {
+			// the other end may already be closed
+		}
+	}
+
+	private List<String[]> split(String[] args) {
+		List<String[]> ret = new ArrayList<>();
+		int start = 0;
+		for (int i=0; i<=args.length; i++) {
+			if (i==args.length || separator.equals(args[i])) {
+				ret.add(Arrays.copyOfRange(args, start, i));
+				start = i+1;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Provides the output to a pipe, which records a write failure that occurs
+	 * after the next command has completed. Such a failure is caused by the
+	 * next command closing its input.
+	 */
+	private static class SinkOutputStream extends FilterOutputStream {
+		private final AtomicBoolean next;
+		private volatile IOException closedByNext;
+
+		private SinkOutputStream(OutputStream out, AtomicBoolean next) {
+			super(out);
+			this.next = next;
+			this.closedByNext = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				throw checked(e);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				throw checked(e);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				throw checked(e);
+			}
+		}
+
+		private IOException checked(IOException e) {
+			if (next.get()) {
+				closedByNext = e;
+			}
+			return e;
+		}
+
+		/**
+		 * Returns true if the exception, or one of its causes, is a write failure
+		 * caused by the next command closing its input.
+		 * @param e the exception
+		 * @return returns true if the failure was caused by the next command, false otherwise
+		 */
+		private boolean isClosedByNext(Throwable e) {
+			IOException c = closedByNext;
+			for (Throwable t = e; c!=null && t!=null; t = t.getCause()) {
+				if (t==c) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Prevents the input of the pipeline from being closed.
+	 */
+	private static class UnclosableInputStream extends FilterInputStream {
+		private UnclosableInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() {
+			// don't close the underlying stream
+		}
+	}
+
+	/**
+	 * Prevents the output of the pipeline from being closed.
+	 */
+	private static class UnclosableOutputStream extends FilterOutputStream {
+		private UnclosableOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+}
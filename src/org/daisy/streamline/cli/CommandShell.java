@@ -0,0 +1,463 @@
+package org.daisy.streamline.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Provides an interactive shell that runs a number of commands in the same
+ * JVM. Each command has a {@link CommandParser}, which is reused for every
+ * command line, and an {@link Action} which returns an {@link ExitCode}
+ * instead of terminating the process.</p>
+ * <p>In addition to the commands, the shell has the following built in commands:</p>
+ * <ul>
+ * <li><code>help [command]</code> lists the commands, or displays the help text for a command</li>
+ * <li><code>history</code> lists the previous command lines</li>
+ * <li><code>time</code> lists the latency statistics for each command</li>
+ * <li><code>exit</code> or <code>quit</code> ends the session</li>
+ * </ul>
+ * <p>Completion candidates for the current line are available through
+ * {@link #complete(String)}, for use with a line editor.</p>
+ * <p>This class is not thread safe.</p>
+ * @author Joel Håkansson
+ */
+public class CommandShell {
+	private static final String HELP = "help";
+	private static final String HISTORY = "history";
+	private static final String TIME = "time";
+	private static final List<String> EXIT = Collections.unmodifiableList(Arrays.asList("exit", "quit"));
+	private final Map<String, Command> commands;
+	private final String prompt;
+	private final int historySize;
+	private final Deque<String> history;
+	private final Map<String, LongSummaryStatistics> latency;
+	private long lastLatency;
+
+	/**
+	 * Provides an action to run when a command is invoked.
+	 */
+	@FunctionalInterface
+	public interface Action {
+		/**
+		 * Runs the action.
+		 * @param args the parsed arguments
+		 * @param out the output stream
+		 * @return returns the exit code for this invocation
+		 */
+		public ExitCode execute(CommandParserResult args, PrintStream out);
+	}
+
+	private static class Command {
+		private final CommandParser parser;
+		private final Action action;
+		// short form resolvers by option name, and by position
+		private final Map<String, List<ShortFormResolver>> optionShortForms;
+		private final Map<Integer, List<ShortFormResolver>> positionShortForms;
+		private Command(CommandParser parser, Action action) {
+			this.parser = parser;
+			this.action = action;
+			this.optionShortForms = new HashMap<>();
+			this.positionShortForms = new HashMap<>();
+		}
+	}
+
+	/**
+	 * Provides a builder for command shells.
+	 */
+	public static class Builder {
+		private final Map<String, Command> commands = new LinkedHashMap<>();
+		private String prompt = "> ";
+		private int historySize = 500;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Adds a command. The command is invoked using the name of its details.
+		 * @param parser the command parser
+		 * @param action the action
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the name is already in use
+		 */
+		public Builder addCommand(CommandParser parser, Action action) {
+			String name = parser.getDetails().getName();
+			if (HELP.equals(name) || HISTORY.equals(name) || TIME.equals(name) || EXIT.contains(name)
+					|| commands.put(name, new Command(parser, action))!=null) {
+				throw new IllegalArgumentException("Name already in use: " + name);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a short form resolver, whose short forms are used as completion
+		 * candidates for the value of an optional argument of a command.
+		 * @param command the command name
+		 * @param option the name of the optional argument
+		 * @param value the short form resolver
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the command hasn't been added
+		 */
+		public Builder addShortForms(String command, String option, ShortFormResolver value) {
+			getCommand(command).optionShortForms.computeIfAbsent(option, k->new ArrayList<>()).add(value);
+			return this;
+		}
+
+		/**
+		 * Adds a short form resolver, whose short forms are used as completion
+		 * candidates for an unnamed/positional argument of a command.
+		 * @param command the command name
+		 * @param position the position of the argument, starting at zero
+		 * @param value the short form resolver
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the command hasn't been added
+		 */
+		public Builder addShortForms(String command, int position, ShortFormResolver value) {
+			getCommand(command).positionShortForms.computeIfAbsent(position, k->new ArrayList<>()).add(value);
+			return this;
+		}
+
+		private Command getCommand(String name) {
+			Command c = commands.get(name);
+			if (c==null) {
+				throw new IllegalArgumentException("Unknown command: " + name);
+			}
+			return c;
+		}
+
+		/**
+		 * Sets the prompt.
+		 * @param value the prompt
+		 * @return returns this object
+		 */
+		public Builder prompt(String value) {
+			this.prompt = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of command lines to keep in the history.
+		 * @param value the history size
+		 * @return returns this object
+		 */
+		public Builder historySize(int value) {
+			this.historySize = value;
+			return this;
+		}
+
+		/**
+		 * Builds the shell.
+		 * @return returns a new instance
+		 */
+		public CommandShell build() {
+			return new CommandShell(this);
+		}
+	}
+
+	private CommandShell(Builder builder) {
+		this.commands = Collections.unmodifiableMap(new LinkedHashMap<>(builder.commands));
+		this.prompt = builder.prompt;
+		this.historySize = builder.historySize;
+		this.history = new ArrayDeque<>();
+		this.latency = new HashMap<>();
+		this.lastLatency = 0;
+	}
+
+	/**
+	 * Reads command lines from the input stream and runs them until
+	 * the input ends or the exit command is given.
+	 * @param in the input stream, typically System.in
+	 * @param out the output stream, typically System.out
+	 * @return returns the exit code of the last command
+	 * @throws UncheckedIOException if the input cannot be read
+	 */
+	public ExitCode run(InputStream in, PrintStream out) {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		ExitCode ret = ExitCode.OK;
+		try {
+			String line;
+			out.print(prompt);
+			out.flush();
+			while ((line = reader.readLine())!=null) {
+				List<String> args = tokenize(line);
+				if (args.size()==1 && EXIT.contains(args.get(0))) {
+					break;
+				}
+				if (!args.isEmpty()) {
+					ret = execute(line, out);
+					if (ret!=ExitCode.OK) {
+						out.println(ret + " (" + ret.getStatus() + ")");
+					}
+				}
+				out.print(prompt);
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Runs a command line. If the arguments violate the option constraints of
+	 * the command, the violations are printed and the command is not executed.
+	 * @param line the command line
+	 * @param out the output stream
+	 * @return returns the exit code for the command
+	 */
+	public ExitCode execute(String line, PrintStream out) {
+		List<String> args = tokenize(line);
+		if (args.isEmpty()) {
+			return ExitCode.OK;
+		}
+		addHistory(line);
+		String name = args.get(0);
+		String[] params = args.subList(1, args.size()).toArray(new String[args.size()-1]);
+		long start = System.nanoTime();
+		ExitCode ret;
+		if (HELP.equals(name)) {
+			ret = help(params, out);
+		} else if (HISTORY.equals(name)) {
+			history.forEach(out::println);
+			ret = ExitCode.OK;
+		} else if (TIME.equals(name)) {
+			latency.forEach((k, v)->out.println(
+					String.format("%s: %d calls, avg %.3f ms, max %.3f ms", k, v.getCount(), v.getAverage()/1e6, v.getMax()/1e6)));
+			ret = ExitCode.OK;
+		} else {
+			Command c = commands.get(name);
+			if (c==null) {
+				out.println("Unknown command: " + name);
+				ret = ExitCode.UNKNOWN_ARGUMENT;
+			} else {
+				try {
+					CommandParserResult result = c.parser.parse(params);
+					ret = c.parser.validate(result, out);
+					if (ret==ExitCode.OK) {
+						ret = c.action.execute(result, out);
+					}
+				} catch (IllegalArgumentException e) {
+					out.println(e.getMessage());
+					ret = ExitCode.ILLEGAL_ARGUMENT_VALUE;
+				} catch (RuntimeException e) {
+					out.println(e);
+					ret = ExitCode.INTERNAL_ERROR;
+				}
+				lastLatency = System.nanoTime()-start;
+				latency.computeIfAbsent(name, k->new LongSummaryStatistics()).accept(lastLatency);
+			}
+		}
+		return ret;
+	}
+
+	private ExitCode help(String[] params, PrintStream out) {
+		if (params.length==0) {
+			for (String name : commands.keySet()) {
+				out.println(name);
+			}
+			return ExitCode.OK;
+		}
+		Command c = commands.get(params[0]);
+		if (c==null) {
+			out.println("Unknown command: " + params[0]);
+			return ExitCode.UNKNOWN_ARGUMENT;
+		}
+		c.parser.displayHelp(out);
+		return ExitCode.OK;
+	}
+
+	private void addHistory(String line) {
+		if (historySize<1) {
+			return;
+		}
+		if (history.size()>=historySize) {
+			history.removeFirst();
+		}
+		history.addLast(line);
+	}
+
+	/**
+	 * Gets the completion candidates for the last word of the supplied line.
+	 * The first word is completed with command names, and so is the word
+	 * after <code>help</code>. Subsequent words are completed with the options
+	 * and switches of the command, the values of an option, or the short forms
+	 * added for the option or position of the word.
+	 * @see Builder#addShortForms(String, String, ShortFormResolver)
+	 * @see Builder#addShortForms(String, int, ShortFormResolver)
+	 * @param line the line
+	 * @return returns a sorted list of candidates
+	 */
+	public List<String> complete(String line) {
+		List<String> args = tokenize(line);
+		if (line.isEmpty() || Character.isWhitespace(line.charAt(line.length()-1))) {
+			args.add("");
+		}
+		String word = args.get(args.size()-1);
+		TreeSet<String> ret = new TreeSet<>();
+		if (args.size()==1) {
+			ret.add(HELP);
+			ret.add(HISTORY);
+			ret.add(TIME);
+			ret.addAll(EXIT);
+			ret.addAll(commands.keySet());
+		} else {
+			Command c = commands.get(args.get(0));
+			if (c!=null) {
+				addCandidates(c, args.subList(1, args.size()-1), word, ret);
+			} else if (HELP.equals(args.get(0)) && args.size()==2) {
+				ret.addAll(commands.keySet());
+			}
+		}
+		List<String> list = new ArrayList<>();
+		for (String s : ret) {
+			if (s.startsWith(word)) {
+				list.add(s);
+			}
+		}
+		return list;
+	}
+
+	private void addCandidates(Command c, List<String> preceding, String word, TreeSet<String> ret) {
+		CommandParser parser = c.parser;
+		String opt = parser.getOptionalArgumentPrefix();
+		String delim = parser.getKeyValueDelimiter();
+		List<OptionalArgument> options = parser.getDetails().getOptionalArguments();
+		int i = word.indexOf(delim);
+		if (word.startsWith(opt) && i>-1) {
+			// complete the value of an option
+			String name = word.substring(opt.length(), i);
+			String p = word.substring(0, i+delim.length());
+			for (OptionalArgument a : options!=null?options:Collections.<OptionalArgument>emptyList()) {
+				if (a.getName().equals(name) && a.hasValues()) {
+					for (Definition d : a.getValues()) {
+						ret.add(p + d.getName());
+					}
+				}
+			}
+			for (ShortFormResolver sf : c.optionShortForms.getOrDefault(name, Collections.emptyList())) {
+				for (String s : sf.getShortForms()) {
+					ret.add(p + s);
+				}
+			}
+			return;
+		}
+		if (!c.positionShortForms.isEmpty()) {
+			// the position of the word is the number of positional arguments before it
+			int position = parser.parse(preceding.toArray(new String[preceding.size()])).getRequired().size();
+			for (ShortFormResolver sf : c.positionShortForms.getOrDefault(position, Collections.emptyList())) {
+				ret.addAll(sf.getShortForms());
+			}
+		}
+		if (options!=null) {
+			for (OptionalArgument a : options) {
+				ret.add(opt + a.getName() + delim);
+			}
+		}
+		SwitchMap switches = parser.getSwitches();
+		if (switches!=null) {
+			for (SwitchArgument a : switches.values()) {
+				if (a.getKey()!=null) {
+					ret.add(parser.getSwitchArgumentPrefix() + a.getKey());
+				}
+				if (a.getAlias()!=null) {
+					ret.add(opt + a.getAlias());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the command history, oldest first.
+	 * @return returns the history
+	 */
+	public List<String> getHistory() {
+		return new ArrayList<>(history);
+	}
+
+	/**
+	 * Gets the latency of the last command.
+	 * @param unit the time unit
+	 * @return returns the latency
+	 */
+	public long getLastLatency(TimeUnit unit) {
+		return unit.convert(lastLatency, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the latency statistics, in nanoseconds, for the specified command.
+	 * @param name the command name
+	 * @return returns a copy of the statistics
+	 */
+	public LongSummaryStatistics getLatencyStatistics(String name) {
+		LongSummaryStatistics ret = new LongSummaryStatistics();
+		LongSummaryStatistics s = latency.get(name);
+		if (s!=null) {
+			ret.combine(s);
+		}
+		return ret;
+	}
+
+	/**
+	 * Splits a command line into words. Words are separated by white space,
+	 * unless quoted with single or double quotes. A backslash escapes the
+	 * following character, except within single quotes.
+	 * @param line the line
+	 * @return returns a list of words
+	 */
+	static List<String> tokenize(String line) {
+		List<String> ret = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		boolean inWord = false;
+		char quote = 0;
+		for (int i=0; i<line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote!=0) {
+				if (c==quote) {
+					quote = 0;
+				} else if (c=='\\' && quote=='"' && i+1<line.length()) {
+					sb.append(line.charAt(++i));
+				} else {
+					sb.append(c);
+				}
+			} else if (c=='"' || c=='\'') {
+				quote = c;
+				inWord = true;
+			} else if (c=='\\' && i+1<line.length()) {
+				sb.append(line.charAt(++i));
+				inWord = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inWord) {
+					ret.add(sb.toString());
+					sb.setLength(0);
+					inWord = false;
+				}
+			} else {
+				sb.append(c);
+				inWord = true;
+			}
+		}
+		if (inWord) {
+			ret.add(sb.toString());
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.daisy.streamline.cli;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides option constraints compiled into bit sets. Each option mentioned in
+ * the constraints is given an index, so that the options in a result can be
+ * represented as a bit set, and each rule can be checked with a few word
+ * operations.
+ * @author Joel Håkansson
+ */
+class CompiledConstraints {
+	private final Map<String, Integer> index;
+	private final String[] names;
+	private final int words;
+	// mutually exclusive groups
+	private final long[][] exclusive;
+	// requirements, the index of the option and the options it requires
+	private final int[] requiring;
+	private final long[][] required;
+	// conditional defaults
+	private final int[] defaultWhen;
+	private final String[] defaultWhenValue;
+	private final int[] defaultOption;
+	private final String[] defaultValue;
+	// the options that are mutually exclusive with the option of each default
+	private final long[][] defaultExcluded;
+
+	CompiledConstraints(OptionConstraints c) {
+		this.index = new HashMap<>();
+		List<String> n = new ArrayList<>();
+		for (List<String> g : c.getMutuallyExclusive()) {
+			g.forEach(v->add(n, v));
+		}
+		for (OptionConstraints.Requirement r : c.getRequirements()) {
+			add(n, r.getOption());
+			r.getRequired().forEach(v->add(n, v));
+		}
+		for (OptionConstraints.ConditionalDefault d : c.getConditionalDefaults()) {
+			add(n, d.getWhenOption());
+			add(n, d.getOption());
+		}
+		this.names = n.toArray(new String[n.size()]);
+		this.words = (names.length+63) >>> 6;
+
+		List<List<String>> groups = c.getMutuallyExclusive();
+		this.exclusive = new long[groups.size()][];
+		for (int i=0; i<exclusive.length; i++) {
+			exclusive[i] = bits(groups.get(i));
+		}
+
+		List<OptionConstraints.Requirement> reqs = c.getRequirements();
+		this.requiring = new int[reqs.size()];
+		this.required = new long[reqs.size()][];
+		for (int i=0; i<requiring.length; i++) {
+			requiring[i] = index.get(reqs.get(i).getOption());
+			required[i] = bits(reqs.get(i).getRequired());
+		}
+
+		List<OptionConstraints.ConditionalDefault> defs = c.getConditionalDefaults();
+		this.defaultWhen = new int[defs.size()];
+		this.defaultWhenValue = new String[defs.size()];
+		this.defaultOption = new int[defs.size()];
+		this.defaultValue = new String[defs.size()];
+		this.defaultExcluded = new long[defs.size()][];
+		for (int i=0; i<defaultWhen.length; i++) {
+			OptionConstraints.ConditionalDefault d = defs.get(i);
+			defaultWhen[i] = index.get(d.getWhenOption());
+			defaultWhenValue[i] = d.getWhenValue();
+			defaultOption[i] = index.get(d.getOption());
+			defaultValue[i] = d.getValue();
+			defaultExcluded[i] = new long[words];
+			for (long[] group : exclusive) {
+				if (isSet(group, defaultOption[i])) {
+					for (int w=0; w<words; w++) {
+						defaultExcluded[i][w] |= group[w];
+					}
+				}
+			}
+			defaultExcluded[i][defaultOption[i] >>> 6] &= ~(1L << defaultOption[i]);
+		}
+	}
+
+	private void add(List<String> n, String name) {
+		if (index.putIfAbsent(name, n.size())==null) {
+			n.add(name);
+		}
+	}
+
+	private long[] bits(Collection<String> options) {
+		long[] ret = new long[words];
+		for (String s : options) {
+			Integer i = index.get(s);
+			if (i!=null) {
+				set(ret, i);
+			}
+		}
+		return ret;
+	}
+
+	private static void set(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	private static boolean isSet(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i))!=0;
+	}
+
+	private boolean intersects(long[] a, long[] b) {
+		for (int w=0; w<words; w++) {
+			if ((a[w] & b[w])!=0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Applies the conditional defaults to the builder. A default isn't applied
+	 * if an option that is mutually exclusive with it is used, since that
+	 * would report a violation for an option that wasn't supplied.
+	 * @param builder the builder
+	 */
+	void applyDefaults(DefaultCommandParserResult.Builder builder) {
+		if (defaultWhen.length==0) {
+			return;
+		}
+		long[] present = bits(builder.getOptionalKeys());
+		for (int i=0; i<defaultWhen.length; i++) {
+			if (isSet(present, defaultOption[i]) || !isSet(present, defaultWhen[i])
+					|| intersects(present, defaultExcluded[i])) {
+				continue;
+			}
+			if (defaultWhenValue[i]==null || defaultWhenValue[i].equals(builder.getOptional(names[defaultWhen[i]]))) {
+				builder.addOptional(names[defaultOption[i]], defaultValue[i]);
+				set(present, defaultOption[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the violations of the constraints.
+	 * @param options the optional arguments
+	 * @return returns a list of messages, empty if there are no violations
+	 */
+	List<String> getViolations(Map<String, String> options) {
+		List<String> ret = new ArrayList<>();
+		if (exclusive.length==0 && requiring.length==0) {
+			return ret;
+		}
+		long[] present = bits(options.keySet());
+		for (long[] group : exclusive) {
+			int count = 0;
+			for (int w=0; w<words; w++) {
+				count += Long.bitCount(present[w] & group[w]);
+			}
+			if (count>1) {
+				ret.add("Options cannot be used together: " + String.join(", ", names(present, group)));
+			}
+		}
+		for (int i=0; i<requiring.length; i++) {
+			if (!isSet(present, requiring[i])) {
+				continue;
+			}
+			long[] missing = null;
+			for (int w=0; w<words; w++) {
+				long m = required[i][w] & ~present[w];
+				if (m!=0) {
+					if (missing==null) {
+						missing = new long[words];
+					}
+					missing[w] = m;
+				}
+			}
+			if (missing!=null) {
+				ret.add("Option " + names[requiring[i]] + " requires: " + String.join(", ", names(missing, null)));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the names of the options in a bit set, optionally masked by another bit set.
+	 * @param bits the bit set
+	 * @param mask the mask, or null
+	 * @return returns the names, in index order
+	 */
+	private List<String> names(long[] bits, long[] mask) {
+		List<String> ret = new ArrayList<>();
+		for (int w=0; w<words; w++) {
+			long b = mask!=null?bits[w] & mask[w]:bits[w];
+			while (b!=0) {
+				ret.add(names[(w << 6) + Long.numberOfTrailingZeros(b)]);
+				b &= b-1;
+			}
+		}
+		return ret;
+	}
+}
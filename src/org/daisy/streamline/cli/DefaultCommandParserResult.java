@@ -1,26 +1,48 @@
 package org.daisy.streamline.cli;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 class DefaultCommandParserResult implements CommandParserResult {
+	// Optional arguments in the order they were added, including repeated keys
+	private final String[] keys;
+	private final String[] values;
 	private final Map<String, String> optional;
 	private final List<String> unnamed;
+	private final Iterator<String> input;
+	// One view per prefix, created when first requested
+	private volatile Map<String, MapView> views;
 
 	static class Builder {
-		private final Map<String, String> optional;
+		private final List<String> keys;
+		private final List<String> values;
 		private final List<String> unnamed;
+		private Iterator<String> input;
 
 		Builder() {
-			optional = new HashMap<>();
+			keys = new ArrayList<>();
+			values = new ArrayList<>();
 			unnamed = new ArrayList<>();
+			input = null;
 		}
 
 		Builder addOptional(String key, String value) {
-			optional.put(key, value);
+			keys.add(key);
+			values.add(value);
 			return this;
 		}
 
@@ -29,14 +51,44 @@ class DefaultCommandParserResult implements CommandParserResult {
 			return this;
 		}
 
+		List<String> getOptionalKeys() {
+			return keys;
+		}
+
+		/**
+		 * Gets the last value added for the key.
+		 * @param key the key
+		 * @return returns the value, or null if not found
+		 */
+		String getOptional(String key) {
+			for (int i=keys.size()-1; i>=0; i--) {
+				if (keys.get(i).equals(key)) {
+					return values.get(i);
+				}
+			}
+			return null;
+		}
+
+		Builder setInput(Iterator<String> value) {
+			input = value;
+			return this;
+		}
+
 		CommandParserResult build() {
 			return new DefaultCommandParserResult(this);
 		}
 	}
 
 	private DefaultCommandParserResult(Builder builder) {
-		this.optional = Collections.unmodifiableMap(new HashMap<>(builder.optional));
-		this.unnamed = Collections.unmodifiableList(new ArrayList<>(builder.unnamed));
+		this.keys = builder.keys.toArray(new String[builder.keys.size()]);
+		this.values = builder.values.toArray(new String[builder.values.size()]);
+		Map<String, String> opts = new LinkedHashMap<>();
+		for (int i=0; i<keys.length; i++) {
+			opts.put(keys[i], values[i]);
+		}
+		this.optional = Collections.unmodifiableMap(opts);
+		this.unnamed = Collections.unmodifiableList(Arrays.asList(builder.unnamed.toArray(new String[builder.unnamed.size()])));
+		this.input = builder.input;
 	}
 
 	@Override
@@ -44,23 +96,175 @@ class DefaultCommandParserResult implements CommandParserResult {
 		return unnamed;
 	}
 
+	@Override
+	public Stream<String> getInputArguments() {
+		if (input==null) {
+			return Stream.empty();
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(input, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public boolean hasInputArguments() {
+		return input!=null;
+	}
+
 	@Override
 	public Map<String, String> getOptional() {
 		return optional;
 	}
 
+	@Override
+	public List<String> getOptionalValues(String key) {
+		List<String> ret = null;
+		for (int i=0; i<keys.length; i++) {
+			if (keys[i].equals(key)) {
+				if (ret==null) {
+					ret = new ArrayList<>();
+				}
+				ret.add(values[i]);
+			}
+		}
+		return ret==null?Collections.emptyList():Collections.unmodifiableList(ret);
+	}
+
 	@Override
 	public Map<String, String> toMap(String prefix) {
-		Map<String, String> ret = new HashMap<>();
-		int i = 0;
-		for (String s : unnamed) {
-			ret.put(prefix+i, s);
-			i++;
+		Map<String, MapView> v = views;
+		if (v==null) {
+			synchronized (this) {
+				v = views;
+				if (v==null) {
+					v = new ConcurrentHashMap<>(4);
+					views = v;
+				}
+			}
 		}
-		for (String key : optional.keySet()) {
-			ret.put(key, optional.get(key));
+		return v.computeIfAbsent(prefix, MapView::new);
+	}
+
+	/**
+	 * Provides a read-only map view of this result. Positional arguments are
+	 * not copied into the map, instead they are looked up by parsing the index
+	 * from the key.
+	 */
+	private class MapView extends AbstractMap<String, String> {
+		private final String prefix;
+		private Set<Entry<String, String>> entrySet;
+
+		MapView(String prefix) {
+			this.prefix = prefix;
+		}
+
+		/**
+		 * Gets the index of the positional argument with the specified key.
+		 * @param key the key
+		 * @return returns the index, or -1 if the key does not refer to a positional argument
+		 */
+		private int indexOf(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			String s = (String)key;
+			int len = s.length();
+			int start = prefix.length();
+			if (len==start || len-start>9 || !s.startsWith(prefix)) {
+				return -1;
+			}
+			// only canonical numbers, i.e. no leading zeros
+			if (s.charAt(start)=='0' && len-start>1) {
+				return -1;
+			}
+			int i = 0;
+			for (int j=start; j<len; j++) {
+				char c = s.charAt(j);
+				if (c<'0' || c>'9') {
+					return -1;
+				}
+				i = i*10 + (c-'0');
+			}
+			return i<unnamed.size()?i:-1;
+		}
+
+		@Override
+		public String get(Object key) {
+			// optional arguments take precedence, as in previous versions
+			String ret = optional.get(key);
+			if (ret==null && !optional.containsKey(key)) {
+				int i = indexOf(key);
+				if (i>-1) {
+					ret = unnamed.get(i);
+				}
+			}
+			return ret;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return optional.containsKey(key) || indexOf(key)>-1;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			if (entrySet==null) {
+				entrySet = new EntrySet();
+			}
+			return entrySet;
+		}
+
+		private class EntrySet extends AbstractSet<Entry<String, String>> {
+			private int size = -1;
+
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				if (size<0) {
+					int s = optional.size();
+					for (int i=0; i<unnamed.size(); i++) {
+						if (!optional.containsKey(prefix+i)) {
+							s++;
+						}
+					}
+					size = s;
+				}
+				return size;
+			}
+		}
+
+		private class EntryIterator implements Iterator<Entry<String, String>> {
+			private final Iterator<Entry<String, String>> opts = optional.entrySet().iterator();
+			private int index = 0;
+			private Entry<String, String> next = null;
+
+			@Override
+			public boolean hasNext() {
+				while (next==null && index<unnamed.size()) {
+					String key = prefix+index;
+					if (!optional.containsKey(key)) {
+						next = new SimpleImmutableEntry<>(key, unnamed.get(index));
+					}
+					index++;
+				}
+				if (next==null && opts.hasNext()) {
+					next = opts.next();
+				}
+				return next!=null;
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Entry<String, String> ret = next;
+				next = null;
+				return ret;
+			}
 		}
-		return ret;
 	}
 
 }
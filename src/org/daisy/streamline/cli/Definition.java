@@ -1,4 +1,8 @@
 package org.daisy.streamline.cli;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
 /**
  * Provides a definition, that is a name and a description
  * @author Joel Håkansson
@@ -6,6 +10,8 @@ package org.daisy.streamline.cli;
 public class Definition {
 	private final String name;
 	private final String desc;
+	// only used for descriptions that are supplied when needed
+	private final Supplier<String> lazyDesc;
 
 	/**
 	 * Creates a new Definition.
@@ -13,8 +19,44 @@ public class Definition {
 	 * @param desc the description of the definition
 	 */
 	public Definition(String name, String desc) {
+		this(name, desc, null);
+	}
+
+	/**
+	 * Creates a new Definition.
+	 * @param name the name of the definition
+	 * @param desc the description of the definition, used if lazyDesc is null
+	 * @param lazyDesc the description supplier, or null
+	 */
+	Definition(String name, String desc, Supplier<String> lazyDesc) {
 		this.name = name;
 		this.desc = desc;
+		this.lazyDesc = lazyDesc;
+	}
+
+	/**
+	 * Checks that a description supplier isn't null.
+	 * @param desc the description supplier
+	 * @return returns the description supplier
+	 * @throws NullPointerException if desc is null
+	 */
+	static Supplier<String> requireSupplier(Supplier<String> desc) {
+		return Objects.requireNonNull(desc, "Description supplier cannot be null.");
+	}
+
+	/**
+	 * Creates a new Definition with a description that is supplied when
+	 * it is needed, for example when help is displayed. The supplier is
+	 * called every time the description is requested, and the result isn't
+	 * retained.
+	 * @param name the name of the definition
+	 * @param desc the description supplier
+	 * @return returns a new Definition
+	 * @throws NullPointerException if desc is null
+	 * @see DescriptionBundle
+	 */
+	public static Definition create(String name, Supplier<String> desc) {
+		return new Definition(name, null, requireSupplier(desc));
 	}
 
 	/**
@@ -30,6 +72,6 @@ public class Definition {
 	 * @return returns the description
 	 */
 	public String getDescription() {
-		return desc;
+		return lazyDesc!=null?lazyDesc.get():desc;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package org.daisy.streamline.cli;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Provides an iterator over the delimited entries of a reader. The reader
+ * is read in blocks as the iterator advances, so the reader should not be
+ * used by anyone else once the iteration has started. Empty entries are
+ * skipped. When the delimiter is a line feed, a preceding carriage return
+ * is removed.
+ * @author Joel Håkansson
+ */
+class DelimitedInputIterator implements Iterator<String> {
+	private final Reader reader;
+	private final char delimiter;
+	private final StringBuilder sb;
+	private final char[] buffer;
+	private int pos;
+	private int len;
+	private String next;
+	private boolean eof;
+
+	DelimitedInputIterator(Reader reader, char delimiter) {
+		this.reader = reader;
+		this.delimiter = delimiter;
+		this.sb = new StringBuilder();
+		this.buffer = new char[8192];
+		this.pos = 0;
+		this.len = 0;
+		this.next = null;
+		this.eof = false;
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			while (next==null && !eof) {
+				if (pos==len) {
+					len = reader.read(buffer);
+					pos = 0;
+					if (len==-1) {
+						len = 0;
+						eof = true;
+						entry();
+						break;
+					}
+				}
+				int start = pos;
+				while (pos<len && buffer[pos]!=delimiter) {
+					pos++;
+				}
+				sb.append(buffer, start, pos-start);
+				if (pos<len) {
+					// skip the delimiter
+					pos++;
+					entry();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return next!=null;
+	}
+
+	private void entry() {
+		if (delimiter=='\n' && sb.length()>0 && sb.charAt(sb.length()-1)=='\r') {
+			sb.setLength(sb.length()-1);
+		}
+		if (sb.length()>0) {
+			next = sb.toString();
+			sb.setLength(0);
+		}
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String ret = next;
+		next = null;
+		return ret;
+	}
+
+}
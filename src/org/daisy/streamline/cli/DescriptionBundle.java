@@ -0,0 +1,93 @@
+package org.daisy.streamline.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.util.MissingResourceException;
+import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>Provides descriptions from a properties resource that is only loaded
+ * when a description is requested. This allows applications with a large
+ * number of definitions to leave the descriptions on disk until help is
+ * displayed.</p>
+ * <p>The resource is read as UTF-8. If the resource name ends with
+ * <code>.gz</code> it is decompressed when loaded.</p>
+ * <pre>
+ * DescriptionBundle bundle = new DescriptionBundle(MyTables.class, "tables.properties.gz");
+ * Definition d = Definition.create("sv_SE", bundle.get("sv_SE"));
+ * </pre>
+ * @author Joel Håkansson
+ */
+public class DescriptionBundle {
+	private final Class<?> context;
+	private final String resource;
+	private SoftReference<Properties> ref;
+
+	/**
+	 * Creates a new description bundle.
+	 * @param context the class used to locate the resource
+	 * @param resource the resource name, relative to the context class
+	 */
+	public DescriptionBundle(Class<?> context, String resource) {
+		this.context = context;
+		this.resource = resource;
+		this.ref = new SoftReference<>(null);
+	}
+
+	/**
+	 * Gets a supplier for the description with the specified key.
+	 * The resource isn't loaded until the supplier is called.
+	 * @param key the key
+	 * @return returns a description supplier
+	 */
+	public Supplier<String> get(String key) {
+		return () -> getDescription(key);
+	}
+
+	/**
+	 * Gets the description with the specified key, loading the resource
+	 * if needed.
+	 * @param key the key
+	 * @return returns the description
+	 * @throws MissingResourceException if the resource or the key cannot be found
+	 */
+	public String getDescription(String key) {
+		String ret = load().getProperty(key);
+		if (ret==null) {
+			throw new MissingResourceException("Key not found: " + key, resource, key);
+		}
+		return ret;
+	}
+
+	private synchronized Properties load() {
+		Properties p = ref.get();
+		if (p==null) {
+			p = new Properties();
+			InputStream is = context.getResourceAsStream(resource);
+			if (is==null) {
+				throw new MissingResourceException("Resource not found: " + resource, resource, "");
+			}
+			try {
+				if (resource.endsWith(".gz")) {
+					is = new GZIPInputStream(is);
+				}
+				try (Reader r = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+					p.load(r);
+				}
+			} catch (IOException e) {
+				MissingResourceException ex = new MissingResourceException("Failed to read resource: " + resource, resource, "");
+				ex.initCause(e);
+				throw ex;
+			}
+			// The descriptions can be reclaimed if memory is needed, they are reloaded on demand
+			ref = new SoftReference<>(p);
+		}
+		return p;
+	}
+}
@@ -66,13 +66,17 @@ public enum ExitCode {
 	}
 
 	/**
-	 * Quits the application with the specified message. 
+	 * Quits the application with the specified message. The message is
+	 * printed using {@link OutputChannel#systemOut()}, which is flushed
+	 * before the application terminates.
 	 * @param message the message
 	 */
 	public void exitSystem(String message) {
+		OutputChannel out = OutputChannel.systemOut();
 		if (message!=null) {
-			System.out.println(message);
+			out.println(message);
 		}
+		out.flush();
 		System.exit(this.status);
 	}
 };
\ No newline at end of file
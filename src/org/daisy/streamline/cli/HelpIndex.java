@@ -0,0 +1,172 @@
+package org.daisy.streamline.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Provides an inverted index over the entries of a help text. Each entry
+ * is indexed by the words of its names and description. The index is built
+ * in a single pass over the entries and is immutable once built.
+ * @author Joel Håkansson
+ */
+class HelpIndex {
+	private final List<Entry> entries;
+	// sorted words, and the ascending entry indices for each word
+	private final String[] words;
+	private final int[][] postings;
+
+	enum Kind {
+		REQUIRED,
+		OPTION,
+		VALUE,
+		SWITCH
+	}
+
+	/**
+	 * Provides an entry in the help text.
+	 */
+	static class Entry {
+		private final Kind kind;
+		private final Definition definition;
+		private final Argument owner;
+
+		Entry(Kind kind, Definition definition, Argument owner) {
+			this.kind = kind;
+			this.definition = definition;
+			this.owner = owner;
+		}
+
+		Kind getKind() {
+			return kind;
+		}
+
+		Definition getDefinition() {
+			return definition;
+		}
+
+		/**
+		 * Gets the argument that a value belongs to.
+		 * @return returns the argument, or null if this entry is not a value
+		 */
+		Argument getOwner() {
+			return owner;
+		}
+	}
+
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size = 0;
+
+		private void add(int v) {
+			// entries are added in order, so a repeated word in the same entry is always last
+			if (size>0 && values[size-1]==v) {
+				return;
+			}
+			if (size==values.length) {
+				values = Arrays.copyOf(values, size*2);
+			}
+			values[size++] = v;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Creates a new index for the supplied entries.
+	 * @param entries the entries, in the order they appear in the help text
+	 */
+	HelpIndex(List<Entry> entries) {
+		this.entries = entries;
+		Map<String, IntList> index = new HashMap<>();
+		for (int i=0; i<entries.size(); i++) {
+			Entry e = entries.get(i);
+			final int entry = i;
+			Definition d = e.getDefinition();
+			forEachWord(d.getName(), w->index.computeIfAbsent(w, k->new IntList()).add(entry));
+			if (d instanceof SwitchArgument) {
+				SwitchArgument s = (SwitchArgument)d;
+				if (s.getKey()!=null) {
+					forEachWord(s.getKey().toString(), w->index.computeIfAbsent(w, k->new IntList()).add(entry));
+				}
+				forEachWord(s.getAlias(), w->index.computeIfAbsent(w, k->new IntList()).add(entry));
+			}
+			forEachWord(d.getDescription(), w->index.computeIfAbsent(w, k->new IntList()).add(entry));
+		}
+		this.words = index.keySet().toArray(new String[index.size()]);
+		Arrays.sort(words);
+		this.postings = new int[words.length][];
+		for (int i=0; i<words.length; i++) {
+			postings[i] = index.get(words[i]).toArray();
+		}
+	}
+
+	/**
+	 * Splits the text into lower case words. A word is a sequence of
+	 * letters and digits.
+	 * @param text the text, may be null
+	 * @param c the word consumer
+	 */
+	private static void forEachWord(String text, Consumer<String> c) {
+		if (text==null) {
+			return;
+		}
+		int start = -1;
+		for (int i=0; i<=text.length(); i++) {
+			boolean wordChar = i<text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (wordChar && start<0) {
+				start = i;
+			} else if (!wordChar && start>-1) {
+				c.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+	}
+
+	/**
+	 * Finds the entries matching all words of the query. A word in the query
+	 * matches words in the index that start with it.
+	 * @param query the query
+	 * @return returns the matching entries, in the order they appear in the help text
+	 */
+	List<Entry> search(String query) {
+		List<String> terms = new ArrayList<>();
+		forEachWord(query, terms::add);
+		if (terms.isEmpty()) {
+			return new ArrayList<>();
+		}
+		boolean[] result = null;
+		for (String t : terms) {
+			boolean[] match = new boolean[entries.size()];
+			int i = Arrays.binarySearch(words, t);
+			if (i<0) {
+				i = -i-1;
+			}
+			for (; i<words.length && words[i].startsWith(t); i++) {
+				for (int e : postings[i]) {
+					match[e] = true;
+				}
+			}
+			if (result==null) {
+				result = match;
+			} else {
+				for (int j=0; j<result.length; j++) {
+					result[j] &= match[j];
+				}
+			}
+		}
+		List<Entry> ret = new ArrayList<>();
+		for (int i=0; i<result.length; i++) {
+			if (result[i]) {
+				ret.add(entries.get(i));
+			}
+		}
+		return ret;
+	}
+}
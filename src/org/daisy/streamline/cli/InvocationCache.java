@@ -0,0 +1,417 @@
+package org.daisy.streamline.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a cache of successful invocations, which makes it possible to skip
+ * jobs whose arguments and input files are unchanged since the last time they
+ * completed with {@link ExitCode#OK}.</p>
+ * <p>The key of an invocation is computed from the namespace of the cache, typically
+ * the name of the command, and the sorted arguments, where values
+ * that are short forms are replaced by their full ids, together with the size and
+ * modification time (or optionally the contents) of every argument that names an
+ * existing file, and of every file in a directory that an argument names. The output
+ * files of a successful invocation are recorded, and the invocation is only skipped
+ * if the outputs are still present and unchanged.</p>
+ * <p>Invocations with input arguments, see {@link CommandParserResult#hasInputArguments()},
+ * are never cached, since the input can only be read once, by the job.</p>
+ * <p>The cache is stored in a local directory. When the total size of the entries
+ * exceeds the limit, the least recently used entries are removed.</p>
+ * @author Joel Håkansson
+ */
+public class InvocationCache {
+	private static final String SUFFIX = ".entry";
+	private final Path dir;
+	private final String namespace;
+	private final long maxSize;
+	private final boolean hashContents;
+	private final String prefix;
+	private final List<ShortFormResolver> resolvers;
+	private final Object lock = new Object();
+	// Estimated total size of the entries, or -1 if not yet computed
+	private long size;
+
+	/**
+	 * Provides a builder for invocation caches.
+	 */
+	public static class Builder {
+		private final Path dir;
+		private final String namespace;
+		private long maxSize = 64L*1024*1024;
+		private boolean hashContents = false;
+		private String prefix = "required-";
+		private final List<ShortFormResolver> resolvers = new ArrayList<>();
+
+		/**
+		 * Creates a new builder. Several commands can share a cache directory, as
+		 * long as they use different namespaces.
+		 * @param dir the cache directory
+		 * @param namespace the namespace, typically the name of the command
+		 */
+		public Builder(Path dir, String namespace) {
+			this.dir = dir;
+			this.namespace = namespace;
+		}
+
+		/**
+		 * Sets the maximum total size of the cache entries, in bytes.
+		 * @param value the size
+		 * @return returns this object
+		 */
+		public Builder maxSize(long value) {
+			this.maxSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether or not the contents of input files should be part of the key.
+		 * If false, which is the default, the size and modification time is used.
+		 * @param value true if the contents should be hashed, false otherwise
+		 * @return returns this object
+		 */
+		public Builder hashContents(boolean value) {
+			this.hashContents = value;
+			return this;
+		}
+
+		/**
+		 * Sets the prefix used for unnamed/positional arguments when
+		 * the arguments are converted with {@link CommandParserResult#toMap(String)}.
+		 * @param value the prefix
+		 * @return returns this object
+		 */
+		public Builder requiredPrefix(String value) {
+			this.prefix = value;
+			return this;
+		}
+
+		/**
+		 * Adds a short form resolver, used to replace short forms with
+		 * full ids when computing the key.
+		 * @param value the resolver
+		 * @return returns this object
+		 */
+		public Builder addShortForms(ShortFormResolver value) {
+			resolvers.add(value);
+			return this;
+		}
+
+		/**
+		 * Builds the cache.
+		 * @return returns a new instance
+		 * @throws UncheckedIOException if the cache directory cannot be created
+		 */
+		public InvocationCache build() {
+			return new InvocationCache(this);
+		}
+	}
+
+	private InvocationCache(Builder builder) {
+		this.dir = builder.dir;
+		this.namespace = builder.namespace;
+		this.maxSize = builder.maxSize;
+		this.hashContents = builder.hashContents;
+		this.prefix = builder.prefix;
+		this.resolvers = Collections.unmodifiableList(new ArrayList<>(builder.resolvers));
+		this.size = -1;
+		try {
+			Files.createDirectories(dir);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Runs the job, unless a previous invocation with the same key completed successfully
+	 * and its outputs are unchanged. If the arguments include input arguments, the job is
+	 * always run and the result isn't cached.
+	 * @param args the arguments of the job
+	 * @param outputs the output files of the job, these are not considered inputs
+	 * @param job the job
+	 * @return returns {@link ExitCode#OK} if the job was skipped, or the exit code of the job
+	 * @throws UncheckedIOException if an I/O error occurs
+	 */
+	public ExitCode run(CommandParserResult args, Collection<Path> outputs, Supplier<ExitCode> job) {
+		if (args.hasInputArguments()) {
+			// the input would have to be read to compute the key
+			return job.get();
+		}
+		String key = getKey(args, outputs);
+		if (isValid(key)) {
+			return ExitCode.OK;
+		}
+		ExitCode ret = job.get();
+		if (ret==ExitCode.OK) {
+			store(key, outputs);
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the key for an invocation. Input arguments are not part of the key.
+	 * @param args the arguments of the job
+	 * @param outputs the output files of the job
+	 * @return returns the key
+	 * @throws UncheckedIOException if an input file cannot be read
+	 */
+	public String getKey(CommandParserResult args, Collection<Path> outputs) {
+		MessageDigest md = newDigest();
+		update(md, "namespace\t" + namespace);
+		Set<Path> out = new HashSet<>();
+		for (Path p : outputs) {
+			Path abs = p.toAbsolutePath().normalize();
+			out.add(abs);
+			update(md, "output\t" + abs);
+		}
+		Map<String, String> sorted = new TreeMap<>(args.toMap(prefix));
+		for (Map.Entry<String, String> e : sorted.entrySet()) {
+			List<String> values = args.getOptional().containsKey(e.getKey())
+					?args.getOptionalValues(e.getKey())
+					:Collections.singletonList(e.getValue());
+			for (String v : values) {
+				update(md, "arg\t" + e.getKey() + "\t" + resolve(v));
+				Path f = toPath(v);
+				if (f==null) {
+					continue;
+				}
+				if (Files.isDirectory(f)) {
+					for (Path p : listFiles(f)) {
+						if (!out.contains(p)) {
+							updateFile(md, p);
+						}
+					}
+				} else if (!out.contains(f)) {
+					updateFile(md, f);
+				}
+			}
+		}
+		return toHex(md.digest());
+	}
+
+	private String resolve(String value) {
+		if (value==null) {
+			return "";
+		}
+		for (ShortFormResolver r : resolvers) {
+			String id = r.resolve(value);
+			if (id!=null) {
+				return id;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the path that a value names, if it is an existing file or directory.
+	 * @param value the value
+	 * @return returns the absolute path, or null
+	 */
+	private static Path toPath(String value) {
+		if (value==null || value.isEmpty()) {
+			return null;
+		}
+		try {
+			Path p = Paths.get(value);
+			return Files.isRegularFile(p) || Files.isDirectory(p)?p.toAbsolutePath().normalize():null;
+		} catch (InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Lists the regular files in a directory and its sub-directories, sorted
+	 * so that the key doesn't depend on the order of the file system. The files
+	 * of the cache are excluded, in case the cache is in the directory.
+	 * @param d the directory
+	 * @return returns a sorted list of paths
+	 * @throws UncheckedIOException if the directory cannot be read
+	 */
+	private List<Path> listFiles(Path d) {
+		Path cache = dir.toAbsolutePath().normalize();
+		try (Stream<Path> s = Files.walk(d)) {
+			return s.filter(p->!p.startsWith(cache) && Files.isRegularFile(p)).sorted().collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void updateFile(MessageDigest md, Path f) {
+		try {
+			if (hashContents) {
+				update(md, "file\t" + f);
+				byte[] buf = new byte[64*1024];
+				try (InputStream is = Files.newInputStream(f)) {
+					int len;
+					while ((len = is.read(buf))>-1) {
+						md.update(buf, 0, len);
+					}
+				}
+			} else {
+				BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+				update(md, "file\t" + f + "\t" + attrs.size() + "\t" + attrs.lastModifiedTime().toMillis());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void update(MessageDigest md, String s) {
+		md.update(s.getBytes(StandardCharsets.UTF_8));
+		md.update((byte)'\n');
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every implementation of the Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] b) {
+		StringBuilder sb = new StringBuilder(b.length*2);
+		for (byte x : b) {
+			sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns true if the entry exists and its outputs are unchanged. A valid entry
+	 * is marked as recently used.
+	 * @param key the key
+	 * @return returns true if the entry is valid, false otherwise
+	 */
+	private boolean isValid(String key) {
+		Path entry = dir.resolve(key + SUFFIX);
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(entry, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		try {
+			for (String line : lines) {
+				String[] f = line.split("\t", 3);
+				if (f.length!=3) {
+					return false;
+				}
+				Path p = Paths.get(f[2]);
+				if (!Files.isRegularFile(p)) {
+					return false;
+				}
+				BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+				if (attrs.size()!=Long.parseLong(f[0]) || attrs.lastModifiedTime().toMillis()!=Long.parseLong(f[1])) {
+					return false;
+				}
+			}
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException | RuntimeException e) {
+			// the entry is damaged, or an output was removed while checking
+			return false;
+		}
+		return true;
+	}
+
+	private void store(String key, Collection<Path> outputs) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			for (Path p : outputs) {
+				Path abs = p.toAbsolutePath().normalize();
+				BasicFileAttributes attrs = Files.readAttributes(abs, BasicFileAttributes.class);
+				sb.append(attrs.size()).append('\t').append(attrs.lastModifiedTime().toMillis()).append('\t').append(abs).append('\n');
+			}
+			byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+			Path tmp = Files.createTempFile(dir, key, ".tmp");
+			Files.write(tmp, data);
+			Files.move(tmp, dir.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			synchronized (lock) {
+				if (size<0) {
+					size = totalSize();
+				} else {
+					size += data.length;
+				}
+				if (size>maxSize) {
+					evict();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long totalSize() throws IOException {
+		long ret = 0;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path p : ds) {
+				ret += Files.size(p);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes the least recently used entries until the total size is
+	 * below 90 percent of the limit.
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void evict() throws IOException {
+		List<Path> entries = new ArrayList<>();
+		Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path p : ds) {
+				try {
+					attrs.put(p, Files.readAttributes(p, BasicFileAttributes.class));
+					entries.add(p);
+				} catch (NoSuchFileException e) {
+					// removed by someone else
+				}
+			}
+		}
+		entries.sort((a, b)->attrs.get(a).lastModifiedTime().compareTo(attrs.get(b).lastModifiedTime()));
+		long total = 0;
+		for (Path p : entries) {
+			total += attrs.get(p).size();
+		}
+		long target = maxSize/10*9;
+		for (Path p : entries) {
+			if (total<=target) {
+				break;
+			}
+			if (Files.deleteIfExists(p)) {
+				total -= attrs.get(p).size();
+			}
+		}
+		size = total;
+	}
+
+}
@@ -0,0 +1,180 @@
+package org.daisy.streamline.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Provides relationships between optional arguments, which are checked by
+ * {@link CommandParser#getViolations(CommandParserResult)}:</p>
+ * <ul>
+ * <li>mutually exclusive groups, of which at most one option may be used,</li>
+ * <li>dependencies, where an option requires one or more other options, and</li>
+ * <li>conditional defaults, which are applied by {@link CommandParser#parse(String[])}
+ * when another option has a specific value.</li>
+ * </ul>
+ * <pre>
+ * new OptionConstraints.Builder()
+ * 	.mutuallyExclusive("table", "locale")
+ * 	.requires("cols", "rows")
+ * 	.conditionalDefault("format", "pef", "table", "sv_SE")
+ * 	.build();
+ * </pre>
+ * @author Joel Håkansson
+ */
+public class OptionConstraints {
+	private final List<List<String>> exclusive;
+	private final List<Requirement> requirements;
+	private final List<ConditionalDefault> defaults;
+
+	static class Requirement {
+		private final String option;
+		private final List<String> required;
+
+		private Requirement(String option, List<String> required) {
+			this.option = option;
+			this.required = required;
+		}
+
+		String getOption() {
+			return option;
+		}
+
+		List<String> getRequired() {
+			return required;
+		}
+	}
+
+	static class ConditionalDefault {
+		private final String whenOption;
+		private final String whenValue;
+		private final String option;
+		private final String value;
+
+		private ConditionalDefault(String whenOption, String whenValue, String option, String value) {
+			this.whenOption = whenOption;
+			this.whenValue = whenValue;
+			this.option = option;
+			this.value = value;
+		}
+
+		String getWhenOption() {
+			return whenOption;
+		}
+
+		/**
+		 * Gets the value that the condition option must have.
+		 * @return returns the value, or null if any value will do
+		 */
+		String getWhenValue() {
+			return whenValue;
+		}
+
+		String getOption() {
+			return option;
+		}
+
+		String getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * Provides a builder for option constraints.
+	 */
+	public static class Builder {
+		private final List<List<String>> exclusive = new ArrayList<>();
+		private final List<Requirement> requirements = new ArrayList<>();
+		private final List<ConditionalDefault> defaults = new ArrayList<>();
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Adds a group of options, of which at most one may be used.
+		 * @param options the option names
+		 * @return returns this object
+		 * @throws IllegalArgumentException if less than two options are supplied
+		 */
+		public Builder mutuallyExclusive(String ... options) {
+			if (options.length<2) {
+				throw new IllegalArgumentException("A group must contain at least two options.");
+			}
+			exclusive.add(Collections.unmodifiableList(Arrays.asList(options.clone())));
+			return this;
+		}
+
+		/**
+		 * Adds a dependency, so that if the option is used, all the
+		 * required options must be used as well.
+		 * @param option the option name
+		 * @param required the names of the required options
+		 * @return returns this object
+		 * @throws IllegalArgumentException if no required options are supplied
+		 */
+		public Builder requires(String option, String ... required) {
+			if (required.length<1) {
+				throw new IllegalArgumentException("At least one required option must be supplied.");
+			}
+			requirements.add(new Requirement(option, Collections.unmodifiableList(Arrays.asList(required.clone()))));
+			return this;
+		}
+
+		/**
+		 * Adds a default value, which is used if the option isn't
+		 * set and another option has a specific value. Defaults are
+		 * applied in the order they are added, so a default can
+		 * satisfy the condition of a default added after it. A default
+		 * is not used if an option in one of its mutually exclusive groups is set.
+		 * @param whenOption the name of the option in the condition
+		 * @param whenValue the value of the option in the condition, or null
+		 * if any value will do
+		 * @param option the name of the option to set
+		 * @param value the default value
+		 * @return returns this object
+		 */
+		public Builder conditionalDefault(String whenOption, String whenValue, String option, String value) {
+			defaults.add(new ConditionalDefault(whenOption, whenValue, option, value));
+			return this;
+		}
+
+		/**
+		 * Builds the constraints.
+		 * @return returns a new instance
+		 */
+		public OptionConstraints build() {
+			return new OptionConstraints(this);
+		}
+	}
+
+	private OptionConstraints(Builder builder) {
+		this.exclusive = Collections.unmodifiableList(new ArrayList<>(builder.exclusive));
+		this.requirements = Collections.unmodifiableList(new ArrayList<>(builder.requirements));
+		this.defaults = Collections.unmodifiableList(new ArrayList<>(builder.defaults));
+	}
+
+	List<List<String>> getMutuallyExclusive() {
+		return exclusive;
+	}
+
+	List<Requirement> getRequirements() {
+		return requirements;
+	}
+
+	List<ConditionalDefault> getConditionalDefaults() {
+		return defaults;
+	}
+
+	/**
+	 * Returns true if there are no constraints.
+	 * @return returns true if there are no constraints, false otherwise
+	 */
+	public boolean isEmpty() {
+		return exclusive.isEmpty() && requirements.isEmpty() && defaults.isEmpty();
+	}
+}
@@ -1,6 +1,7 @@
 package org.daisy.streamline.cli;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Provides the information needed by an optional argument.
@@ -32,6 +33,32 @@ public class OptionalArgument extends Argument {
 		this.defaultValue = defaultValue;
 	}
 
+	/**
+	 * Creates a new optional argument.
+	 * @param name the name of the argument
+	 * @param description the description of the argument, used if lazyDescription is null
+	 * @param lazyDescription the description supplier, or null
+	 * @param values the list of acceptable values, or null
+	 * @param defaultValue the default value for the argument
+	 */
+	OptionalArgument(String name, String description, Supplier<String> lazyDescription, List<Definition> values, String defaultValue) {
+		super(name, description, lazyDescription, values);
+		this.defaultValue = defaultValue;
+	}
+
+	/**
+	 * Creates a new optional argument with a description that is supplied when it is needed.
+	 * @param name the name of the argument
+	 * @param description the description supplier
+	 * @param values the list of acceptable values, or null
+	 * @param defaultValue the default value for the argument
+	 * @return returns a new optional argument
+	 * @see Definition#create(String, Supplier)
+	 */
+	public static OptionalArgument create(String name, Supplier<String> description, List<Definition> values, String defaultValue) {
+		return new OptionalArgument(name, null, requireSupplier(description), values, defaultValue);
+	}
+
 	/**
 	 * Gets the default value.
 	 * @return returns the default value for the argument
@@ -0,0 +1,298 @@
+package org.daisy.streamline.cli;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Provides a buffered output channel that can be used by many threads
+ * at once. Text is added to a lock free queue, and a background thread
+ * writes it to the underlying stream in large batches. Text written by
+ * one thread appears in the order it was written.</p>
+ * <p>The number of texts waiting to be written is limited. When the limit is
+ * reached, printing blocks until the background thread has caught up.</p>
+ * <p>Use {@link #flush()} to make sure that everything written so far has
+ * reached the underlying stream. The channel returned by {@link #systemOut()}
+ * is also flushed when the JVM shuts down, for example by
+ * {@link ExitCode#exitSystem(String)}.</p>
+ * <p>If writing to the underlying stream fails, the channel stops writing and
+ * discards the text that is printed after that, so that printing threads aren't
+ * blocked. The failure is reported by {@link #flush()} and {@link #close()}.</p>
+ * @author Joel Håkansson
+ */
+public class OutputChannel implements Flushable, AutoCloseable {
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	private final OutputStream out;
+	private final Charset charset;
+	private final int bufferSize;
+	private final long interval;
+	// Texts and flush markers
+	private final ConcurrentLinkedQueue<Object> queue;
+	// Limits the number of texts in the queue
+	private final Semaphore permits;
+	private final ReentrantLock writeLock;
+	private final Thread writer;
+	private volatile boolean closed;
+	// The first failure to write, only set while holding the write lock
+	private volatile Throwable failure;
+
+	/**
+	 * Marks the point in the queue up to which a flush writes.
+	 * Only accessed while holding the write lock.
+	 */
+	private static class Marker {
+		private boolean reached = false;
+	}
+
+	private static class SystemOutHolder {
+		private static final OutputChannel INSTANCE = new OutputChannel.Builder(System.out).build();
+		static {
+			Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::flushQuietly, "output-channel-shutdown"));
+		}
+	}
+
+	/**
+	 * Provides a builder for output channels.
+	 */
+	public static class Builder {
+		private final OutputStream out;
+		private Charset charset = Charset.defaultCharset();
+		private int bufferSize = 64*1024;
+		private long interval = 50;
+		private int capacity = 8192;
+
+		/**
+		 * Creates a new builder.
+		 * @param out the underlying output stream
+		 */
+		public Builder(OutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Sets the charset. The default is the default charset of the JVM.
+		 * @param value the charset
+		 * @return returns this object
+		 */
+		public Builder charset(Charset value) {
+			this.charset = value;
+			return this;
+		}
+
+		/**
+		 * Sets the approximate number of characters written to the underlying
+		 * stream at a time.
+		 * @param value the buffer size
+		 * @return returns this object
+		 */
+		public Builder bufferSize(int value) {
+			this.bufferSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum time that text is kept in the channel before
+		 * it is written to the underlying stream.
+		 * @param value the interval
+		 * @param unit the time unit
+		 * @return returns this object
+		 */
+		public Builder flushInterval(long value, TimeUnit unit) {
+			this.interval = unit.toMillis(value);
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of texts that can be waiting to be written.
+		 * When the limit is reached, printing blocks until the texts have been
+		 * written. The default is 8192.
+		 * @param value the capacity
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the value is less than one
+		 */
+		public Builder capacity(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Capacity must be at least 1: " + value);
+			}
+			this.capacity = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new output channel and starts its background thread.
+		 * @return returns a new instance
+		 */
+		public OutputChannel build() {
+			return new OutputChannel(this);
+		}
+	}
+
+	private OutputChannel(Builder builder) {
+		this.out = builder.out;
+		this.charset = builder.charset;
+		this.bufferSize = builder.bufferSize;
+		this.interval = Math.max(1, builder.interval);
+		this.queue = new ConcurrentLinkedQueue<>();
+		this.permits = new Semaphore(builder.capacity);
+		this.writeLock = new ReentrantLock();
+		this.closed = false;
+		this.failure = null;
+		this.writer = new Thread(this::run, "output-channel");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Gets a shared output channel for System.out.
+	 * @return returns the output channel
+	 */
+	public static OutputChannel systemOut() {
+		return SystemOutHolder.INSTANCE;
+	}
+
+	/**
+	 * Prints the supplied text.
+	 * @param s the text
+	 * @throws IllegalStateException if the channel is closed
+	 */
+	public void print(CharSequence s) {
+		if (closed) {
+			throw new IllegalStateException("Channel is closed.");
+		}
+		String text = s.toString();
+		if (!permits.tryAcquire()) {
+			// the queue is full, wake up the writer rather than wait for the interval
+			LockSupport.unpark(writer);
+			permits.acquireUninterruptibly();
+			if (closed) {
+				permits.release();
+				throw new IllegalStateException("Channel is closed.");
+			}
+		}
+		queue.add(text);
+	}
+
+	/**
+	 * Prints the supplied text followed by a line separator.
+	 * @param s the text
+	 * @throws IllegalStateException if the channel is closed
+	 */
+	public void println(CharSequence s) {
+		print(s + LINE_SEPARATOR);
+	}
+
+	/**
+	 * Prints a line separator.
+	 * @throws IllegalStateException if the channel is closed
+	 */
+	public void println() {
+		print(LINE_SEPARATOR);
+	}
+
+	private void run() {
+		while (!closed) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(interval));
+			flushQuietly();
+		}
+	}
+
+	/**
+	 * Writes everything that was in the queue when this method was called to
+	 * the underlying stream. Texts added while draining are left for later, so
+	 * that this method returns even if other threads keep printing. The queue is
+	 * drained by one thread at a time, so that batches aren't reordered. Failures
+	 * to write are recorded rather than thrown, so that the queue is always drained.
+	 */
+	private void drain() {
+		Marker m = new Marker();
+		queue.add(m);
+		writeLock.lock();
+		try {
+			if (m.reached) {
+				// another thread has written everything up to the marker
+				return;
+			}
+			StringBuilder sb = new StringBuilder(bufferSize);
+			Object o;
+			while ((o = queue.poll())!=null) {
+				if (o instanceof Marker) {
+					((Marker)o).reached = true;
+					if (o==m) {
+						break;
+					}
+					continue;
+				}
+				permits.release();
+				if (failure==null) {
+					sb.append((String)o);
+					if (sb.length()>=bufferSize) {
+						write(sb, false);
+					}
+				}
+			}
+			if (failure==null) {
+				write(sb, true);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void write(StringBuilder sb, boolean flush) {
+		try {
+			if (sb.length()>0) {
+				out.write(sb.toString().getBytes(charset));
+			}
+			if (flush) {
+				out.flush();
+			}
+		} catch (Throwable t) {
+			// kept for flush and close, since there is no one to report to from the background thread
+			failure = t;
+		}
+		sb.setLength(0);
+	}
+
+	private void flushQuietly() {
+		if (!queue.isEmpty()) {
+			drain();
+		}
+	}
+
+	/**
+	 * Writes everything that has been printed so far to the underlying stream.
+	 * Text printed by other threads while flushing may be left for later.
+	 * @throws UncheckedIOException if writing has failed with an I/O error
+	 * @throws IllegalStateException if writing has failed for another reason
+	 */
+	@Override
+	public void flush() {
+		drain();
+		Throwable t = failure;
+		if (t instanceof IOException) {
+			throw new UncheckedIOException((IOException)t);
+		} else if (t!=null) {
+			throw new IllegalStateException("Writing failed.", t);
+		}
+	}
+
+	/**
+	 * Flushes and closes the channel. The underlying stream is not closed.
+	 * @throws UncheckedIOException if writing has failed with an I/O error
+	 * @throws IllegalStateException if writing has failed for another reason
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writer);
+		flush();
+	}
+
+}
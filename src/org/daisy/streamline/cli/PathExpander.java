@@ -0,0 +1,425 @@
+package org.daisy.streamline.cli;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Provides expansion of glob patterns and directories in positional arguments.
+ * An argument containing any of the glob characters <code>*?[{</code> is
+ * replaced by the regular files matching the pattern, as defined by
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}. An argument naming a
+ * directory is replaced by all regular files in that directory and its
+ * sub-directories. Other arguments are passed on unchanged, which includes
+ * arguments naming an existing file and, like in a shell, patterns that
+ * don't match any files.</p>
+ *
+ * <p>Directories are traversed in parallel and the results are streamed
+ * as they are found, in no particular order unless the expander is
+ * configured to sort them. Streams that aren't consumed to the end
+ * must be closed, so that the traversal is stopped. Otherwise, a thread
+ * of the pool keeps waiting for the stream to be consumed, unless a
+ * timeout is set with {@link Builder#timeout(long, TimeUnit)}.</p>
+ *
+ * <p>Files and directories that cannot be read, for example because they were
+ * removed during the traversal or because access is denied, are skipped. The
+ * failures can be collected with {@link Builder#errors(Consumer)}.</p>
+ *
+ * @author Joel Håkansson
+ */
+public class PathExpander {
+	private static final String GLOB_CHARS = "*?[{";
+	private static final Object END = new Object();
+	private final ForkJoinPool pool;
+	private final boolean sorted;
+	private final int bufferSize;
+	private final long timeout;
+	private final Consumer<IOException> errors;
+
+	/**
+	 * Provides a builder for path expanders.
+	 */
+	public static class Builder {
+		private ForkJoinPool pool = ForkJoinPool.commonPool();
+		private boolean sorted = false;
+		private int bufferSize = 1024;
+		private long timeout = 0;
+		private Consumer<IOException> errors = e->{};
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the pool used when traversing directories. The default
+		 * is the common pool.
+		 * @param value the pool
+		 * @return returns this object
+		 */
+		public Builder pool(ForkJoinPool value) {
+			this.pool = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether or not the paths expanded from each argument should be
+		 * sorted. Sorting requires that the traversal is completed before the
+		 * first path of an argument is returned. The default is false.
+		 * @param value true if the paths should be sorted, false otherwise
+		 * @return returns this object
+		 */
+		public Builder sorted(boolean value) {
+			this.sorted = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of paths that are buffered before the
+		 * traversal waits for the stream to be consumed.
+		 * @param value the buffer size
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the value is less than one
+		 */
+		public Builder bufferSize(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Buffer size must be at least 1: " + value);
+			}
+			this.bufferSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum time that the traversal waits, while the buffer is full,
+		 * without the consumer taking a path from the stream. If the time is exceeded,
+		 * the stream is assumed to be abandoned, the traversal is stopped and the
+		 * stream fails. Note that a consumer that spends longer than this on a single
+		 * path can't be told apart from an abandoned stream. The default is zero,
+		 * which means that there is no limit.
+		 * @param value the time, or zero for no limit
+		 * @param unit the time unit
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder timeout(long value, TimeUnit unit) {
+			if (value<0) {
+				throw new IllegalArgumentException("Timeout must not be negative: " + value);
+			}
+			this.timeout = unit.toNanos(value);
+			return this;
+		}
+
+		/**
+		 * Sets the consumer of failures to read files or directories during
+		 * the traversal. The consumer is called from the threads of the pool.
+		 * By default, failures are ignored.
+		 * @param value the consumer
+		 * @return returns this object
+		 */
+		public Builder errors(Consumer<IOException> value) {
+			this.errors = value;
+			return this;
+		}
+
+		/**
+		 * Builds the path expander.
+		 * @return returns a new instance
+		 */
+		public PathExpander build() {
+			return new PathExpander(this);
+		}
+	}
+
+	private PathExpander(Builder builder) {
+		this.pool = builder.pool;
+		this.sorted = builder.sorted;
+		this.bufferSize = builder.bufferSize;
+		this.timeout = builder.timeout;
+		this.errors = builder.errors;
+	}
+
+	/**
+	 * Creates a new path expander with the default settings.
+	 * @return returns a new path expander
+	 */
+	public static PathExpander create() {
+		return new Builder().build();
+	}
+
+	/**
+	 * Expands the unnamed/positional arguments of the supplied parser result.
+	 * @param result the parser result
+	 * @return returns a stream of arguments
+	 * @see #expand(Collection)
+	 */
+	public Stream<String> expand(CommandParserResult result) {
+		return expand(result.getRequired());
+	}
+
+	/**
+	 * Expands the supplied arguments. The arguments are expanded in order,
+	 * as the stream is consumed.
+	 * @param args the arguments
+	 * @return returns a stream of arguments
+	 * @throws UncheckedIOException if the traversal was stopped because the stream wasn't
+	 * consumed in time
+	 */
+	public Stream<String> expand(Collection<String> args) {
+		return args.stream().flatMap(this::expand);
+	}
+
+	/**
+	 * Expands a single argument.
+	 * @param arg the argument
+	 * @return returns a stream of arguments
+	 */
+	Stream<String> expand(String arg) {
+		try {
+			Path p = Paths.get(arg);
+			if (Files.isDirectory(p)) {
+				return walk(p, null, Integer.MAX_VALUE, null);
+			} else if (Files.exists(p)) {
+				// an existing file is used as is, even if its name contains glob characters
+				return Stream.of(arg);
+			}
+		} catch (InvalidPathException e) {
+			// not a path, but it may still be a pattern
+		}
+		int i = indexOfGlob(arg);
+		if (i<0) {
+			return Stream.of(arg);
+		}
+		int start = Math.max(arg.lastIndexOf('/', i), arg.lastIndexOf(FileSystems.getDefault().getSeparator(), i));
+		String base = start>-1?arg.substring(0, start+1):"";
+		String pattern = arg.substring(start+1);
+		int depth;
+		if (pattern.contains("**")) {
+			depth = Integer.MAX_VALUE;
+		} else {
+			depth = 1;
+			for (int j=0; j<pattern.length(); j++) {
+				char c = pattern.charAt(j);
+				if (c=='/' || c==FileSystems.getDefault().getSeparator().charAt(0)) {
+					depth++;
+				}
+			}
+		}
+		try {
+			Path dir = Paths.get(base);
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+			if (Files.isDirectory(dir)) {
+				// like a shell, the argument is passed on if nothing matches
+				return walk(dir, matcher, depth, arg);
+			}
+		} catch (InvalidPathException | PatternSyntaxException e) {
+			// not a pattern, pass it on as is
+		}
+		return Stream.of(arg);
+	}
+
+	private static int indexOfGlob(String arg) {
+		for (int i=0; i<arg.length(); i++) {
+			if (GLOB_CHARS.indexOf(arg.charAt(i))>-1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private Stream<String> walk(Path dir, PathMatcher matcher, int maxDepth, String fallback) {
+		Walk w = new Walk(matcher, maxDepth, fallback);
+		w.start(dir);
+		Stream<String> ret = StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(w, Spliterator.NONNULL), false)
+				.onClose(w::cancel);
+		return sorted?ret.sorted():ret;
+	}
+
+	/**
+	 * Provides a directory traversal. Directories are visited by tasks in the pool,
+	 * which put the matching paths in a bounded queue that is consumed
+	 * by the iterator.
+	 */
+	private class Walk implements Iterator<String> {
+		private final PathMatcher matcher;
+		private final int maxDepth;
+		// returned if nothing was found, or null
+		private final String fallback;
+		private final BlockingQueue<Object> queue;
+		private final AtomicInteger pending;
+		private volatile boolean cancelled;
+		private volatile boolean timedOut;
+		// the time when the consumer last took a path
+		private volatile long lastTake;
+		private Object next;
+		private boolean found;
+		private boolean done;
+
+		private Walk(PathMatcher matcher, int maxDepth, String fallback) {
+			this.matcher = matcher;
+			this.maxDepth = maxDepth;
+			this.fallback = fallback;
+			this.queue = new ArrayBlockingQueue<>(bufferSize);
+			this.pending = new AtomicInteger();
+			this.cancelled = false;
+			this.timedOut = false;
+			this.lastTake = System.nanoTime();
+			this.next = null;
+			this.found = false;
+			this.done = false;
+		}
+
+		private void start(Path dir) {
+			pending.incrementAndGet();
+			pool.execute(new Visit(dir, 0));
+		}
+
+		private void cancel() {
+			cancelled = true;
+			queue.clear();
+		}
+
+		private void put(Object o) {
+			try {
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+					private boolean added = false;
+					@Override
+					public boolean block() throws InterruptedException {
+						while (!added && !cancelled) {
+							if (timeout>0 && System.nanoTime()-lastTake>timeout) {
+								// nothing has been taken for too long, the stream was abandoned
+								timedOut = true;
+								cancel();
+							} else {
+								added = queue.offer(o, 100, TimeUnit.MILLISECONDS);
+							}
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						if (!added && !cancelled) {
+							added = queue.offer(o);
+						}
+						return added || cancelled;
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelled = true;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next==null && !done) {
+				try {
+					while ((next = queue.poll(100, TimeUnit.MILLISECONDS))==null) {
+						if (cancelled) {
+							done = true;
+							if (timedOut) {
+								throw new UncheckedIOException(new IOException("Traversal stopped, the paths were not consumed in time."));
+							}
+							return false;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancel();
+					throw new IllegalStateException(e);
+				}
+				lastTake = System.nanoTime();
+				if (next==END) {
+					next = found?null:fallback;
+					done = true;
+				}
+				found = true;
+			}
+			return next!=null;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String ret = (String)next;
+			next = null;
+			return ret;
+		}
+
+		private class Visit extends RecursiveAction {
+			private static final long serialVersionUID = 7421046388813549937L;
+			private final Path dir;
+			private final int depth;
+
+			private Visit(Path dir, int depth) {
+				this.dir = dir;
+				this.depth = depth;
+			}
+
+			@Override
+			protected void compute() {
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+					for (Path p : ds) {
+						if (cancelled) {
+							break;
+						}
+						BasicFileAttributes attrs;
+						try {
+							// Links to directories are not followed, which avoids cycles
+							attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+						} catch (IOException e) {
+							// for example, the file was removed after the directory was listed
+							errors.accept(e);
+							continue;
+						}
+						if (attrs.isDirectory()) {
+							if (depth+1<maxDepth) {
+								pending.incrementAndGet();
+								new Visit(p, depth+1).fork();
+							}
+						} else if ((attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(p)))
+								&& (matcher==null || matcher.matches(p))) {
+							put(p.toString());
+						}
+					}
+				} catch (IOException e) {
+					// the directory cannot be read, skip it and continue with the others
+					errors.accept(e);
+				} finally {
+					if (pending.decrementAndGet()==0) {
+						put(END);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,271 @@
+package org.daisy.streamline.cli;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Provides progress reporting for jobs that are processed by several
+ * worker threads. Workers update the counters without locking, while
+ * the progress is displayed periodically by a single background thread.</p>
+ * <p>When the output is a terminal, the progress is displayed on a single
+ * line which is updated in place. Otherwise, a line is printed at each
+ * interval where the progress has changed. Java can't tell whether
+ * System.err is a terminal, so this must be enabled with
+ * {@link Builder#interactive(boolean)}.</p>
+ * <pre>
+ * ProgressReporter progress = new ProgressReporter.Builder().total(files.size()).build();
+ * files.parallelStream().forEach(f-&gt;{
+ *     if (convert(f)) {
+ *         progress.completed();
+ *     } else {
+ *         progress.failed();
+ *     }
+ * });
+ * progress.finish().exitSystem();
+ * </pre>
+ * @author Joel Håkansson
+ */
+public class ProgressReporter implements AutoCloseable {
+	private final LongAdder completed;
+	private final LongAdder failed;
+	private final long total;
+	private final String label;
+	private final PrintStream out;
+	private final boolean interactive;
+	private final ExitCode failureCode;
+	private final ScheduledExecutorService scheduler;
+	private final long start;
+	// Only accessed while holding the lock on this object
+	private long lastCount;
+	private int lastLength;
+	private ExitCode result;
+
+	/**
+	 * Provides a builder for progress reporters.
+	 */
+	public static class Builder {
+		private long total = -1;
+		private String label = "Progress";
+		private PrintStream out = System.err;
+		private boolean interactive = false;
+		private long interval = -1;
+		private ExitCode failureCode = ExitCode.RESOURCE_ERROR;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the total number of items, if known.
+		 * @param value the total
+		 * @return returns this object
+		 */
+		public Builder total(long value) {
+			this.total = value;
+			return this;
+		}
+
+		/**
+		 * Sets the label to display in front of the progress.
+		 * @param value the label
+		 * @return returns this object
+		 */
+		public Builder label(String value) {
+			this.label = value;
+			return this;
+		}
+
+		/**
+		 * Sets the output stream. The default is System.err.
+		 * @param value the output stream
+		 * @return returns this object
+		 */
+		public Builder output(PrintStream value) {
+			this.out = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether or not the output is a terminal where the progress can
+		 * be updated in place. The default is false, since the JVM can't tell
+		 * whether a stream other than System.in and System.out is a terminal.
+		 * @param value true if the output is a terminal, false otherwise
+		 * @return returns this object
+		 */
+		public Builder interactive(boolean value) {
+			this.interactive = value;
+			return this;
+		}
+
+		/**
+		 * Sets the update interval. The default is 200 milliseconds for a
+		 * terminal, and 10 seconds otherwise.
+		 * @param value the interval
+		 * @param unit the time unit
+		 * @return returns this object
+		 * @throws IllegalArgumentException if the value is less than one
+		 */
+		public Builder interval(long value, TimeUnit unit) {
+			if (value<1) {
+				throw new IllegalArgumentException("Interval must be at least 1: " + value);
+			}
+			this.interval = unit.toMillis(value);
+			return this;
+		}
+
+		/**
+		 * Sets the exit code to return from {@link ProgressReporter#finish()} if
+		 * any item failed. The default is {@link ExitCode#RESOURCE_ERROR}.
+		 * @param value the exit code
+		 * @return returns this object
+		 */
+		public Builder failureCode(ExitCode value) {
+			this.failureCode = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new progress reporter and starts displaying the progress.
+		 * @return returns a new instance
+		 */
+		public ProgressReporter build() {
+			return new ProgressReporter(this);
+		}
+	}
+
+	private ProgressReporter(Builder builder) {
+		this.completed = new LongAdder();
+		this.failed = new LongAdder();
+		this.total = builder.total;
+		this.label = builder.label;
+		this.out = builder.out;
+		this.interactive = builder.interactive;
+		this.failureCode = builder.failureCode;
+		this.start = System.nanoTime();
+		this.lastCount = -1;
+		this.lastLength = 0;
+		this.result = null;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r->{
+			Thread t = new Thread(r, "progress-reporter");
+			t.setDaemon(true);
+			return t;
+		});
+		long interval = builder.interval>0?builder.interval:(interactive?200:10000);
+		scheduler.scheduleAtFixedRate(this::display, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a completed item.
+	 */
+	public void completed() {
+		completed.increment();
+	}
+
+	/**
+	 * Registers a number of completed items.
+	 * @param n the number of items
+	 */
+	public void completed(long n) {
+		completed.add(n);
+	}
+
+	/**
+	 * Registers a failed item.
+	 */
+	public void failed() {
+		failed.increment();
+	}
+
+	/**
+	 * Gets the number of completed items.
+	 * @return returns the number of completed items
+	 */
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	/**
+	 * Gets the number of failed items.
+	 * @return returns the number of failed items
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	private synchronized void display() {
+		if (result!=null) {
+			return;
+		}
+		long c = completed.sum();
+		long f = failed.sum();
+		if (c+f==lastCount) {
+			return;
+		}
+		lastCount = c+f;
+		String line = progressLine(c, f);
+		if (interactive) {
+			StringBuilder sb = new StringBuilder(lastLength+1).append('\r').append(line);
+			// clear what remains of the previous line
+			for (int i=line.length(); i<lastLength; i++) {
+				sb.append(' ');
+			}
+			lastLength = line.length();
+			out.print(sb);
+		} else {
+			out.println(line);
+		}
+		out.flush();
+	}
+
+	private String progressLine(long c, long f) {
+		double seconds = elapsedSeconds();
+		StringBuilder sb = new StringBuilder(label).append(": ").append(c+f);
+		if (total>0) {
+			sb.append('/').append(total).append(String.format(Locale.ROOT, " (%.1f%%)", 100d*(c+f)/total));
+		}
+		if (f>0) {
+			sb.append(", ").append(f).append(" failed");
+		}
+		if (seconds>0) {
+			sb.append(String.format(Locale.ROOT, ", %.1f/s", (c+f)/seconds));
+		}
+		return sb.toString();
+	}
+
+	private double elapsedSeconds() {
+		return (System.nanoTime()-start)/1e9;
+	}
+
+	/**
+	 * Stops displaying the progress and prints a summary. Calling this
+	 * method more than once has no further effect.
+	 * @return returns {@link ExitCode#OK} if no item failed, or the failure code otherwise
+	 */
+	public synchronized ExitCode finish() {
+		if (result==null) {
+			scheduler.shutdownNow();
+			long c = completed.sum();
+			long f = failed.sum();
+			if (interactive && lastLength>0) {
+				out.println();
+			}
+			out.println(String.format(Locale.ROOT, "%s: %d completed, %d failed in %.1f s", label, c, f, elapsedSeconds()));
+			out.flush();
+			result = f==0?ExitCode.OK:failureCode;
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		finish();
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.daisy.streamline.cli;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Provides a bounded cache in front of {@link ShortFormResolver#resolve(String)},
+ * for use by long running processes that resolve the same values many times, possibly
+ * from several threads at once.</p>
+ * <p>The cache is divided into segments that are locked independently. Each segment
+ * removes its least recently used entry when it is full. Values that cannot be resolved
+ * are cached as well.</p>
+ * @author Joel Håkansson
+ */
+public class ShortFormCache {
+	private static final int MAX_SEGMENTS = 16;
+	// Marks a value that cannot be resolved
+	private static final String UNRESOLVED = new String();
+	private final ShortFormResolver resolver;
+	private final Segment[] segments;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	private static class Segment extends LinkedHashMap<String, String> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		private Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size()>capacity;
+		}
+	}
+
+	/**
+	 * Creates a new cache for the specified resolver.
+	 * @param resolver the resolver
+	 * @param maxSize the maximum number of cached values
+	 * @throws IllegalArgumentException if maxSize is less than one
+	 */
+	public ShortFormCache(ShortFormResolver resolver, int maxSize) {
+		if (maxSize<1) {
+			throw new IllegalArgumentException("Size must be at least one: " + maxSize);
+		}
+		this.resolver = resolver;
+		// a power of two, so that the segment can be selected with a mask
+		int n = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxSize));
+		this.segments = new Segment[n];
+		for (int i=0; i<n; i++) {
+			segments[i] = new Segment(maxSize/n);
+		}
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Resolves a short form using the cache.
+	 * @param shortForm the short form to resolve
+	 * @return returns the full id for the supplied short form, or null if the short
+	 * form does not have an identifier
+	 * @see ShortFormResolver#resolve(String)
+	 */
+	public String resolve(String shortForm) {
+		int h = shortForm.hashCode();
+		Segment s = segments[(h ^ (h >>> 16)) & (segments.length-1)];
+		String ret;
+		synchronized (s) {
+			ret = s.get(shortForm);
+		}
+		if (ret!=null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			// resolved outside of the lock, the result is the same if two threads do this at once
+			ret = resolver.resolve(shortForm);
+			synchronized (s) {
+				s.put(shortForm, ret!=null?ret:UNRESOLVED);
+			}
+		}
+		return ret!=UNRESOLVED?ret:null;
+	}
+
+	/**
+	 * Expands the short form value found at the specified key in the provided map and
+	 * replaces it with the full id using {@link #resolve(String)}.
+	 * @param map the map with keys
+	 * @param key the key to whose value to expand
+	 * @throws IllegalArgumentException if the value for the key cannot be resolved
+	 * @see ShortFormResolver#expandShortForm(Map, String)
+	 */
+	public void expandShortForm(Map<String, String> map, String key) {
+		String value = map.get(key);
+		if (value!=null) {
+			String id = resolve(value);
+			if (id!=null) {
+				map.put(key, id);
+			} else {
+				throw new IllegalArgumentException("Unknown value for "+key+": '" + value + "'");
+			}
+		}
+	}
+
+	/**
+	 * Expands the short form values found at the specified keys in the provided map
+	 * using {@link #resolve(String)}. The provided map is not modified.
+	 * @param map the map with keys
+	 * @param keys the keys whose values to expand
+	 * @return returns a new map with the same keys, in the same order, where the values
+	 * of the specified keys have been replaced with their full ids
+	 * @throws IllegalArgumentException if one or more of the values cannot be resolved
+	 * @see ShortFormResolver#expandShortForms(Map, Collection)
+	 */
+	public Map<String, String> expandShortForms(Map<String, String> map, Collection<String> keys) {
+		return ShortFormResolver.expandShortForms(map, keys, this::resolve);
+	}
+
+	/**
+	 * Gets the number of values currently in the cache.
+	 * @return returns the number of values
+	 */
+	public int size() {
+		int ret = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				ret += s.size();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the number of times a value was found in the cache.
+	 * @return returns the number of hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of times a value was not found in the cache.
+	 * @return returns the number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+}
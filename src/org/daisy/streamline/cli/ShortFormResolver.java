@@ -1,21 +1,35 @@
 package org.daisy.streamline.cli;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /**
  * Provides shorter names for factory identifiers, to be used in command line user interfaces.
  * The short forms are guaranteed to be consistent between executions as long as
- * the identifiers in the collection remains the same.  
+ * the identifiers in the collection remains the same.
  * @author Joel Håkansson
  */
 public class ShortFormResolver {
-	private final HashMap<String, String> idents;
-	private final HashMap<String, String> shorts;
+	// Identifiers and the index of their short form
+	private final String[] ids;
+	private final int[] idShort;
+	// Short forms, sorted, and the index of their identifier
+	private final String[] shorts;
+	private final int[] shortId;
+	// Open addressing hash tables containing index+1, zero means empty
+	private final int[] idTable;
+	private final int[] shortTable;
+	private final List<String> shortFormList;
+	// Collections of at least this size are processed in parallel
+	static final int PARALLEL_THRESHOLD = 10000;
 
 	/**
 	 * Creates a new short form resolver with the specified
@@ -34,74 +48,332 @@ public class ShortFormResolver {
 
 	/**
 	 * Creates a new ShortFormResolver for the supplied collection of identifiers.
+	 * Large collections are processed in parallel.
 	 * @param obj the collection to create short forms for
 	 */
 	public ShortFormResolver(Collection<String> obj) {
-		this.idents = new HashMap<>();
-		this.shorts = new HashMap<>();
+		this(obj, obj.size()>=PARALLEL_THRESHOLD);
+	}
+
+	/**
+	 * Creates a new ShortFormResolver for the supplied collection of identifiers.
+	 * The result is the same regardless of whether the work is done in parallel.
+	 * @param obj the collection to create short forms for
+	 * @param parallel true if the work should be done in parallel, false otherwise
+	 */
+	ShortFormResolver(Collection<String> obj, boolean parallel) {
+		String[] in = obj.toArray(new String[obj.size()]);
+		int n = in.length;
+		String[] lower = new String[n];
+		// The bounds and hash code of the last segment of each identifier
+		int[] lastStart = new int[n];
+		int[] lastEnd = new int[n];
+		int[] lastHash = new int[n];
+		range(n, parallel).forEach(i->{
+			String s = in[i].toLowerCase();
+			int end = segmentsEnd(s);
+			int start = end==0?0:s.lastIndexOf('.', end-1)+1;
+			lower[i] = s;
+			lastStart[i] = start;
+			lastEnd[i] = end;
+			lastHash[i] = hash(s, start, end);
+		});
 		//analyze uniqueness short forms
-		HashMap<String, Integer> uniqueIndex = new HashMap<>();
-		for (String f : obj) {
-			String identifier = f.toLowerCase();
-			for (String p : identifier.split("\\.")) {
-				Integer i = uniqueIndex.get(p);
-				if (i!=null) {
-					uniqueIndex.put(p, i+1);
-				} else {
-					uniqueIndex.put(p, 1);
+		// Only segments that are the last segment of an identifier need to be counted,
+		// so the table contains those, as identifier index+1, and segments are looked up
+		// by their bounds rather than as substrings.
+		int[] segTable = new int[tableSize(n)];
+		int[] segSlot = new int[n];
+		for (int i=0; i<n; i++) {
+			segSlot[i] = addSegment(segTable, lower, lastStart, lastEnd, lastHash, i);
+		}
+		int[] counts;
+		if (parallel) {
+			AtomicIntegerArray c = new AtomicIntegerArray(segTable.length);
+			IntStream.range(0, n).parallel().forEach(i->forEachSegment(lower[i], (start, end, h)->{
+				int slot = findSegment(segTable, lower, lastStart, lastEnd, lastHash, lower[i], start, end, h);
+				// the count only needs to distinguish one from more than one
+				if (slot>-1 && c.get(slot)<2) {
+					c.incrementAndGet(slot);
 				}
+			}));
+			counts = new int[segTable.length];
+			for (int i=0; i<counts.length; i++) {
+				counts[i] = c.get(i);
+			}
+		} else {
+			int[] c = new int[segTable.length];
+			for (int i=0; i<n; i++) {
+				String s = lower[i];
+				forEachSegment(s, (start, end, h)->{
+					int slot = findSegment(segTable, lower, lastStart, lastEnd, lastHash, s, start, end, h);
+					if (slot>-1) {
+						c[slot]++;
+					}
+				});
 			}
+			counts = c;
 		}
 		//add short forms
-		for (String f : obj) {
-			String identifier = f.toLowerCase();
-			String[] s = identifier.split("\\.");
-			Integer x = uniqueIndex.get(s[s.length-1]);
-			assert x!=null;
-			if (x==1) {
-				idents.put(s[s.length-1], f);
-				shorts.put(f, s[s.length-1]);
+		String[] sf = new String[n];
+		range(n, parallel).forEach(i->{
+			if (counts[segSlot[i]]==1) {
+				sf[i] = lower[i].substring(lastStart[i], lastEnd[i]);
 			} else {
 				//TODO: expand on this
 				// Don't do anything
-				idents.put(identifier, f);
-				shorts.put(f, identifier);
+				sf[i] = lower[i];
+			}
+		});
+		// Distinct identifiers, the first occurrence is used
+		String[] idKeys = new String[n];
+		int[] idOrd = new int[n];
+		int idCount = 0;
+		this.idTable = new int[tableSize(n)];
+		// Distinct short forms, if two identifiers have the same short form, the last one is used
+		String[] sfKeys = new String[n];
+		int[] sfOrd = new int[n];
+		int[] sfLast = new int[n];
+		int sfCount = 0;
+		int[] sfTable = new int[tableSize(n)];
+		for (int i=0; i<n; i++) {
+			int d = add(idTable, idKeys, idCount, in[i]);
+			if (d==idCount) {
+				idCount++;
+			}
+			idOrd[i] = d;
+			d = add(sfTable, sfKeys, sfCount, sf[i]);
+			if (d==sfCount) {
+				sfCount++;
+			}
+			sfOrd[i] = d;
+			sfLast[d] = i;
+		}
+		//build the tables
+		this.ids = Arrays.copyOf(idKeys, idCount);
+		this.shorts = Arrays.copyOf(sfKeys, sfCount);
+		if (parallel) {
+			Arrays.parallelSort(shorts);
+		} else {
+			Arrays.sort(shorts);
+		}
+		this.idShort = new int[ids.length];
+		this.shortId = new int[shorts.length];
+		this.shortTable = new int[tableSize(shorts.length)];
+		// The sorted position of each distinct short form
+		int[] sfPos = new int[sfCount];
+		for (int i=0; i<shorts.length; i++) {
+			int d = add(sfTable, sfKeys, sfCount, shorts[i]);
+			sfPos[d] = i;
+			shortId[i] = idOrd[sfLast[d]];
+			insert(shortTable, hashIgnoreCase(shorts[i]), i);
+		}
+		for (int i=0; i<n; i++) {
+			idShort[idOrd[i]] = sfPos[sfOrd[i]];
+		}
+		this.shortFormList = Collections.unmodifiableList(Arrays.asList(shorts));
+	}
+
+	private static IntStream range(int n, boolean parallel) {
+		IntStream ret = IntStream.range(0, n);
+		return parallel?ret.parallel():ret;
+	}
+
+	/**
+	 * Gets the end of the last segment, ignoring trailing empty segments
+	 * in the same way as {@link String#split(String)}.
+	 * @param s the identifier
+	 * @return returns the end index
+	 */
+	private static int segmentsEnd(String s) {
+		int end = s.length();
+		while (end>0 && s.charAt(end-1)=='.') {
+			end--;
+		}
+		return end;
+	}
+
+	@FunctionalInterface
+	private interface SegmentConsumer {
+		void accept(int start, int end, int hash);
+	}
+
+	/**
+	 * Calls the consumer with the bounds and hash code of each segment of the identifier.
+	 * @param s the identifier
+	 * @param c the consumer
+	 */
+	private static void forEachSegment(String s, SegmentConsumer c) {
+		int end = segmentsEnd(s);
+		int start = 0;
+		int h = 0;
+		for (int i=0; i<end; i++) {
+			char ch = s.charAt(i);
+			if (ch=='.') {
+				c.accept(start, i, spread(h));
+				start = i+1;
+				h = 0;
+			} else {
+				h = 31*h + ch;
+			}
+		}
+		c.accept(start, end, spread(h));
+	}
+
+	/**
+	 * Computes a hash code that is equal to {@link #hash(String)} of the substring.
+	 * @param s the string
+	 * @param start the start index, inclusive
+	 * @param end the end index, exclusive
+	 * @return returns the hash code
+	 */
+	private static int hash(String s, int start, int end) {
+		int h = 0;
+		for (int i=start; i<end; i++) {
+			h = 31*h + s.charAt(i);
+		}
+		return spread(h);
+	}
+
+	private static int addSegment(int[] table, String[] lower, int[] starts, int[] ends, int[] hashes, int index) {
+		int mask = table.length-1;
+		int i = hashes[index] & mask;
+		int v;
+		while ((v = table[i])!=0) {
+			if (segmentEquals(lower, starts, ends, hashes, v-1, lower[index], starts[index], ends[index], hashes[index])) {
+				return i;
+			}
+			i = (i+1) & mask;
+		}
+		table[i] = index+1;
+		return i;
+	}
+
+	private static int findSegment(int[] table, String[] lower, int[] starts, int[] ends, int[] hashes, String s, int start, int end, int hash) {
+		int mask = table.length-1;
+		int i = hash & mask;
+		int v;
+		while ((v = table[i])!=0) {
+			if (segmentEquals(lower, starts, ends, hashes, v-1, s, start, end, hash)) {
+				return i;
 			}
+			i = (i+1) & mask;
+		}
+		return -1;
+	}
+
+	private static boolean segmentEquals(String[] lower, int[] starts, int[] ends, int[] hashes, int index, String s, int start, int end, int hash) {
+		int len = end-start;
+		return hashes[index]==hash && ends[index]-starts[index]==len
+				&& lower[index].regionMatches(starts[index], s, start, len);
+	}
+
+	/**
+	 * Adds a key to a table, unless an equal key is already present.
+	 * @param table the table, containing index+1
+	 * @param keys the keys
+	 * @param size the number of keys
+	 * @param key the key
+	 * @return returns the index of the key, which is equal to size if the key was added
+	 */
+	private static int add(int[] table, String[] keys, int size, String key) {
+		int mask = table.length-1;
+		int i = hash(key) & mask;
+		int v;
+		while ((v = table[i])!=0) {
+			if (keys[v-1].equals(key)) {
+				return v-1;
+			}
+			i = (i+1) & mask;
+		}
+		table[i] = size+1;
+		keys[size] = key;
+		return size;
+	}
+
+	private static int tableSize(int entries) {
+		// a power of two, at most half full
+		return Integer.highestOneBit(Math.max(2, entries) * 2 - 1) << 1;
+	}
+
+	private static void insert(int[] table, int hash, int index) {
+		int mask = table.length-1;
+		int i = hash & mask;
+		while (table[i]!=0) {
+			i = (i+1) & mask;
+		}
+		table[i] = index+1;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(String s) {
+		return spread(s.hashCode());
+	}
+
+	/**
+	 * Computes a hash code that is consistent with {@link String#equalsIgnoreCase(String)}.
+	 * @param s the string
+	 * @return returns the hash code
+	 */
+	private static int hashIgnoreCase(String s) {
+		int h = 0;
+		for (int i=0; i<s.length(); i++) {
+			h = 31*h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
 		}
+		return spread(h);
 	}
 
 	/**
 	 * Gets all short forms.
-	 * @return returns a list of short forms
+	 * @return returns a sorted, unmodifiable list of short forms
 	 */
 	public List<String> getShortForms() {
-		ArrayList<String> ret = new ArrayList<>(idents.keySet());
-		Collections.sort(ret);
-		return ret;
+		return shortFormList;
 	}
 
 	/**
 	 * Get the short form for the specified identifier.
 	 * @param id the identifier to get the short form for
-	 * @return returns the short form for the identifier, or null if the identifier 
+	 * @return returns the short form for the identifier, or null if the identifier
 	 * does not have a short form
 	 */
 	public String getShortForm(String id) {
-		return shorts.get(id);
+		int mask = idTable.length-1;
+		int i = hash(id) & mask;
+		int v;
+		while ((v = idTable[i])!=0) {
+			if (ids[v-1].equals(id)) {
+				return shorts[idShort[v-1]];
+			}
+			i = (i+1) & mask;
+		}
+		return null;
 	}
 
 	/**
-	 * Resolves a short form.
+	 * Resolves a short form. The comparison is case insensitive.
 	 * @param shortForm the short form to resolve
 	 * @return returns the full id for the supplied short form, or null if the short
 	 * form does not have an identifier
 	 */
 	public String resolve(String shortForm) {
-		return idents.get(shortForm.toLowerCase());
+		int mask = shortTable.length-1;
+		int i = hashIgnoreCase(shortForm) & mask;
+		int v;
+		while ((v = shortTable[i])!=0) {
+			if (shorts[v-1].equalsIgnoreCase(shortForm)) {
+				return ids[shortId[v-1]];
+			}
+			i = (i+1) & mask;
+		}
+		return null;
 	}
-	
+
 	/**
-	 * Expands the short form value found at the specified key in the provided map and 
+	 * Expands the short form value found at the specified key in the provided map and
 	 * replaces it with the full id using {@link #resolve(String)}.
 	 * @param map the map with keys
 	 * @param key the key to whose value to expand
@@ -118,4 +390,45 @@ public class ShortFormResolver {
 			}
 		}
 	}
+
+	/**
+	 * Expands the short form values found at the specified keys in the provided map
+	 * using {@link #resolve(String)}. Unlike {@link #expandShortForm(Map, String)}, the
+	 * provided map is not modified, so that a read-only map, such as the one returned
+	 * by {@link CommandParserResult#toMap(String)}, can be used. Values that cannot
+	 * be resolved are reported together.
+	 * @param map the map with keys
+	 * @param keys the keys whose values to expand
+	 * @return returns a new map with the same keys, in the same order, where the values
+	 * of the specified keys have been replaced with their full ids
+	 * @throws IllegalArgumentException if one or more of the values cannot be resolved
+	 */
+	public Map<String, String> expandShortForms(Map<String, String> map, Collection<String> keys) {
+		return expandShortForms(map, keys, this::resolve);
+	}
+
+	static Map<String, String> expandShortForms(Map<String, String> map, Collection<String> keys, Function<String, String> resolver) {
+		Map<String, String> ret = new LinkedHashMap<>(map);
+		StringBuilder unresolved = null;
+		for (String key : keys) {
+			String value = map.get(key);
+			if (value!=null) {
+				String id = resolver.apply(value);
+				if (id!=null) {
+					ret.put(key, id);
+				} else {
+					if (unresolved==null) {
+						unresolved = new StringBuilder("Unknown values for ");
+					} else {
+						unresolved.append(", ");
+					}
+					unresolved.append(key).append(": '").append(value).append('\'');
+				}
+			}
+		}
+		if (unresolved!=null) {
+			throw new IllegalArgumentException(unresolved.toString());
+		}
+		return ret;
+	}
 }
@@ -1,5 +1,7 @@
 package org.daisy.streamline.cli;
 
+import java.util.function.Supplier;
+
 /**
  * Provides a definition for switch arguments.
  * 
@@ -49,7 +51,22 @@ public class SwitchArgument extends Definition {
 	 * @throws IllegalArgumentException if both key and alias are null
 	 */
 	public SwitchArgument(Character key, String alias, String name, String value, String desc) {
-		super(name, desc);
+		this(key, alias, name, value, desc, null);
+	}
+
+	/**
+	 * Creates a switch argument.
+	 * @param key the switch key
+	 * @param alias the switch alias
+	 * @param name the name of the argument
+	 * @param value the value for the argument
+	 * @param desc a description of the switch, used if lazyDesc is null
+	 * @param lazyDesc the description supplier, or null
+	 * @throws IllegalArgumentException if alias is less than two characters
+	 * @throws IllegalArgumentException if both key and alias are null
+	 */
+	SwitchArgument(Character key, String alias, String name, String value, String desc, Supplier<String> lazyDesc) {
+		super(name, desc, lazyDesc);
 		if (key==null && alias==null) {
 			throw new IllegalArgumentException("'key' and 'alias' cannot both be null.");
 		}
@@ -61,6 +78,22 @@ public class SwitchArgument extends Definition {
 		this.alias = alias;
 	}
 
+	/**
+	 * Creates a switch argument with a description that is supplied when it is needed.
+	 * @param key the switch key
+	 * @param alias the switch alias
+	 * @param name the name of the argument
+	 * @param value the value for the argument
+	 * @param desc the description supplier
+	 * @return returns a new switch argument
+	 * @throws IllegalArgumentException if alias is less than two characters
+	 * @throws IllegalArgumentException if both key and alias are null
+	 * @see Definition#create(String, Supplier)
+	 */
+	public static SwitchArgument create(Character key, String alias, String name, String value, Supplier<String> desc) {
+		return new SwitchArgument(key, alias, name, value, null, requireSupplier(desc));
+	}
+
 	/**
 	 * Gets the value for the argument when found
 	 * @return the argument value
@@ -7,12 +7,27 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Provides a collection of switches, indexed by key and alias.
+ * @author Joel Håkansson
+ */
 public class SwitchMap {
+	/**
+	 * Keys below this value are stored in a table indexed by the key itself.
+	 */
+	private static final int KEY_TABLE_SIZE = 128;
 	private final List<SwitchArgument> switches;
-	private final Map<String, SwitchArgument> switchesMap;
+	private final SwitchArgument[] keyTable;
+	private final Map<Character, SwitchArgument> otherKeys;
+	private final Map<String, SwitchArgument> aliases;
+
+	/**
+	 * Provides a builder for switch maps.
+	 */
 	public static class Builder {
 		private final List<SwitchArgument> switches = new ArrayList<>();
-		private final Map<String, SwitchArgument> switchesMap = new HashMap<>();
+		private final Map<Character, SwitchArgument> keys = new HashMap<>();
+		private final Map<String, SwitchArgument> aliases = new HashMap<>();
 		/**
 		 * Adds a switch.
 		 * @param value the switch
@@ -21,28 +36,44 @@ public class SwitchMap {
 		 */
 		public Builder addSwitch(SwitchArgument value) {
 			if (value.getKey()!=null) {
-				if (switchesMap.put(""+value.getKey(), value)!=null) {
+				if (keys.put(value.getKey(), value)!=null) {
 					throw new IllegalArgumentException("Key already in use: " + value.getKey());
 				}
 			}
 			if (value.getAlias()!=null) {
-				if (switchesMap.put(value.getAlias(), value)!=null)  {
+				if (aliases.put(value.getAlias(), value)!=null)  {
 					throw new IllegalArgumentException("Alias already in use: " + value.getAlias());
 				}
 			}
 			switches.add(value);
 			return this;
 		}
+
+		/**
+		 * Builds the switch map.
+		 * @return returns a new instance
+		 */
 		public SwitchMap build() {
 			return new SwitchMap(this);
 		}
 	}
-	
+
 	private SwitchMap(Builder builder) {
 		this.switches = Collections.unmodifiableList(new ArrayList<>(builder.switches));
-		this.switchesMap = Collections.unmodifiableMap(new HashMap<>(builder.switchesMap));
+		this.keyTable = new SwitchArgument[KEY_TABLE_SIZE];
+		Map<Character, SwitchArgument> other = new HashMap<>();
+		for (Map.Entry<Character, SwitchArgument> e : builder.keys.entrySet()) {
+			char c = e.getKey();
+			if (c<KEY_TABLE_SIZE) {
+				keyTable[c] = e.getValue();
+			} else {
+				other.put(c, e.getValue());
+			}
+		}
+		this.otherKeys = other.isEmpty()?Collections.emptyMap():other;
+		this.aliases = new HashMap<>(builder.aliases);
 	}
-	
+
 	/**
 	 * Gets the switch arguments.
 	 * @return returns the switch arguments
@@ -50,14 +81,30 @@ public class SwitchMap {
 	public Collection<SwitchArgument> values() {
 		return switches;
 	}
-	
+
 	/**
 	 * Gets a switch from its key or alias.
 	 * @param key the key or alias
 	 * @return returns the switch argument, or null if not found
 	 */
 	public SwitchArgument get(String key) {
-		return switchesMap.get(key);
+		// aliases are at least two characters, so a single character is always a key
+		if (key.length()==1) {
+			return get(key.charAt(0));
+		}
+		return aliases.get(key);
+	}
+
+	/**
+	 * Gets a switch from its key.
+	 * @param key the key
+	 * @return returns the switch argument, or null if not found
+	 */
+	public SwitchArgument get(char key) {
+		if (key<KEY_TABLE_SIZE) {
+			return keyTable[key];
+		}
+		return otherKeys.get(key);
 	}
 
 }
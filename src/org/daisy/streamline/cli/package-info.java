@@ -6,7 +6,8 @@
  * directly to e.g. XSLT's.
  * </p>
  * <p>A switch is treated as shorthand for a specific 
- * key-value combination.</p>
+ * key-value combination. Single character switches
+ * can be combined, for example -cdv.</p>
  * 
  * @author Joel Håkansson
  */
@@ -0,0 +1,144 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+@SuppressWarnings("javadoc")
+public class CommandCatalogTest {
+
+	private static CommandDetails newDetails() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getName()).thenReturn("test");
+		Mockito.when(details.getDescription()).thenReturn("Test command, åäö");
+		List<Definition> values = Arrays.asList(new Definition("a", "Value a"), new Definition("b", "Value b"));
+		Mockito.when(details.getRequiredArguments()).thenReturn(Arrays.asList(
+				new Argument("input", "The input"),
+				new Argument("mode", "The mode", values)));
+		Mockito.when(details.getOptionalArguments()).thenReturn(Arrays.asList(
+				new OptionalArgument("table", "The table", values, "a"),
+				new OptionalArgument("width", "The width", null)));
+		Mockito.when(details.getSwitches()).thenReturn(new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('w', "wide", "width", "80", "Wide output"))
+				.addSwitch(new SwitchArgument("narrow", "width", "40", "Narrow output"))
+				.build());
+		Mockito.when(details.getConstraints()).thenReturn(new OptionConstraints.Builder()
+				.mutuallyExclusive("table", "locale")
+				.requires("width", "table")
+				.conditionalDefault("table", "b", "width", "40")
+				.conditionalDefault("width", null, "table", "a")
+				.build());
+		return details;
+	}
+
+	private static String help(CommandDetails details) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandParser.create(details).displayHelp(new PrintStream(os));
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		CommandDetails expected = newDetails();
+		Path f = Files.createTempFile(null, ".catalog");
+		try {
+			try (OutputStream os = Files.newOutputStream(f)) {
+				CommandCatalog.write(expected, os);
+			}
+			CommandDetails actual = CommandCatalog.load(f);
+			assertEquals("test", actual.getName());
+			assertEquals("Test command, åäö", actual.getDescription());
+			assertNull(actual.getRequiredArguments().get(0).getValues());
+			assertEquals("b", actual.getRequiredArguments().get(1).getValues().get(1).getName());
+			assertEquals("a", actual.getOptionalArguments().get(0).getDefault());
+			assertNull(actual.getOptionalArguments().get(1).getDefault());
+			assertEquals("width", actual.getSwitches().get('w').getName());
+			assertEquals("40", actual.getSwitches().get("narrow").getValue());
+			assertNull(actual.getSwitches().get("narrow").getKey());
+			OptionConstraints c = actual.getConstraints();
+			assertEquals(Arrays.asList(Arrays.asList("table", "locale")), c.getMutuallyExclusive());
+			assertEquals("width", c.getRequirements().get(0).getOption());
+			assertEquals(Arrays.asList("table"), c.getRequirements().get(0).getRequired());
+			assertEquals("b", c.getConditionalDefaults().get(0).getWhenValue());
+			assertEquals("40", c.getConditionalDefaults().get(0).getValue());
+			assertNull(c.getConditionalDefaults().get(1).getWhenValue());
+			assertEquals(help(expected), help(actual));
+		} finally {
+			Files.delete(f);
+		}
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandCatalog.write(newDetails(), os);
+		CommandDetails details = CommandCatalog.load(new ByteArrayInputStream(os.toByteArray()));
+		CommandParserResult res = CommandParser.create(details).parse(new String[]{"in.txt", "a", "-w"});
+		assertEquals(Arrays.asList("in.txt", "a"), res.getRequired());
+		assertEquals("80", res.getOptional().get("width"));
+		// the constraints are kept
+		CommandParser parser = CommandParser.create(details);
+		assertEquals("40", parser.parse(new String[]{"in.txt", "a", "--table=b"}).getOptional().get("width"));
+		assertEquals("a", parser.parse(new String[]{"in.txt", "a", "--width=10"}).getOptional().get("table"));
+	}
+
+	@Test
+	public void testNoConstraints() throws IOException {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getName()).thenReturn("test");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandCatalog.write(details, os);
+		assertTrue(CommandCatalog.load(new ByteArrayInputStream(os.toByteArray())).getConstraints().isEmpty());
+	}
+
+	@Test(expected=IOException.class)
+	public void testInvalid() throws IOException {
+		// longer than the header, so that the magic number is checked
+		CommandCatalog.load(new ByteArrayInputStream("not a catalog, but long enough to contain a header".getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test(expected=IOException.class)
+	public void testDamagedString() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandCatalog.write(newDetails(), os);
+		ByteBuffer data = ByteBuffer.wrap(os.toByteArray());
+		// the description of the first required argument
+		data.putInt(40+4, Integer.MAX_VALUE-4);
+		CommandCatalog.load(new ByteArrayInputStream(data.array()));
+	}
+
+	@Test(expected=IOException.class)
+	public void testDamagedValues() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandCatalog.write(newDetails(), os);
+		ByteBuffer data = ByteBuffer.wrap(os.toByteArray());
+		// the first value of the second required argument
+		data.putInt(40+20+16, 1000);
+		CommandCatalog.load(new ByteArrayInputStream(data.array()));
+	}
+
+	@Test(expected=IOException.class)
+	public void testDamagedConstraints() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CommandCatalog.write(newDetails(), os);
+		ByteBuffer data = ByteBuffer.wrap(os.toByteArray());
+		// the number of mutually exclusive groups, the first int after the switches
+		data.putInt(40+4*20+2*8+2*20, 1000);
+		CommandCatalog.load(new ByteArrayInputStream(data.array()));
+	}
+}
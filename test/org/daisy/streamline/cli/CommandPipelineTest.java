@@ -0,0 +1,125 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+@SuppressWarnings("javadoc")
+public class CommandPipelineTest {
+
+	private static CommandParser parser(String name) {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getName()).thenReturn(name);
+		return CommandParser.create(details);
+	}
+
+	private static CommandPipeline newPipeline() {
+		return newPipeline(new PrintStream(new ByteArrayOutputStream()));
+	}
+
+	private static CommandPipeline newPipeline(PrintStream errors) {
+		return new CommandPipeline.Builder()
+				.addCommand(parser("upper"), (args, in, out) -> {
+					int c;
+					while ((c = in.read())>-1) {
+						out.write(Character.toUpperCase(c));
+					}
+					return ExitCode.OK;
+				})
+				.addCommand(parser("repeat"), (args, in, out) -> {
+					int times = Integer.parseInt(args.getOptional().get("times"));
+					byte[] data = readAll(in);
+					for (int i=0; i<times; i++) {
+						out.write(data);
+					}
+					return ExitCode.OK;
+				})
+				.addCommand(parser("head"), (args, in, out) -> {
+					out.write(in.read());
+					return ExitCode.OK;
+				})
+				.addCommand(parser("fail"), (args, in, out) -> ExitCode.UNEXPECTED_RESOURCE_CONTENTS)
+				.addCommand(parser("ignore"), (args, in, out) -> ExitCode.OK)
+				.addCommand(parser("error"), (args, in, out) -> {
+					try {
+						// the next command completes in the meantime
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new IOException("Disk error");
+				})
+				.errors(errors)
+				.build();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = in.read(buf))>-1) {
+			os.write(buf, 0, len);
+		}
+		return os.toByteArray();
+	}
+
+	private static ExitCode run(CommandPipeline p, String input, OutputStream out, String ... args) {
+		return p.run(args, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+	}
+
+	@Test
+	public void testPipeline() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(ExitCode.OK, run(newPipeline(), "abc", out, "repeat", "--times=3", "::", "upper"));
+		assertEquals("ABCABCABC", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testLargeData() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(ExitCode.OK, run(newPipeline(), "abcd", out, "repeat", "--times=100000", "::", "upper", "::", "upper"));
+		assertEquals(400000, out.size());
+	}
+
+	@Test
+	public void testFailingStage() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		assertEquals(ExitCode.UNEXPECTED_RESOURCE_CONTENTS, run(newPipeline(new PrintStream(errors)), "abcd", out, "repeat", "--times=1000000", "::", "fail"));
+		// the write error in the first command is caused by the failure, and isn't reported
+		assertEquals(0, errors.size());
+	}
+
+	@Test
+	public void testErrorAfterNextStageCompleted() {
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		CommandPipeline p = newPipeline(new PrintStream(errors, true));
+		assertEquals(ExitCode.RESOURCE_ERROR, run(p, "abcd", new ByteArrayOutputStream(), "error", "::", "ignore"));
+		assertEquals("error: Disk error" + System.lineSeparator(), new String(errors.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testStageStopsReadingEarly() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		CommandPipeline p = newPipeline(new PrintStream(errors));
+		assertEquals(ExitCode.OK, run(p, "abcd", out, "repeat", "--times=1000000", "::", "head"));
+		assertEquals("a", new String(out.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(0, errors.size());
+	}
+
+	@Test
+	public void testUnknownCommand() {
+		assertEquals(ExitCode.UNKNOWN_ARGUMENT, run(newPipeline(), "", new ByteArrayOutputStream(), "upper", "::", "lower"));
+		assertEquals(ExitCode.MISSING_ARGUMENT, run(newPipeline(), "", new ByteArrayOutputStream(), "upper", "::"));
+	}
+}
@@ -0,0 +1,93 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+@SuppressWarnings("javadoc")
+public class CommandShellTest {
+
+	private static CommandShell newShell() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getName()).thenReturn("copy");
+		Mockito.when(details.getOptionalArguments()).thenReturn(Arrays.asList(
+				new OptionalArgument("table", "The table", Arrays.asList(new Definition("sv", "Swedish"), new Definition("en", "English")), "sv")));
+		Mockito.when(details.getSwitches()).thenReturn(new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('f', "force", "force", "true", "Overwrite."))
+				.build());
+		return new CommandShell.Builder()
+				.addCommand(CommandParser.create(details), (args, out) -> {
+					if (args.getRequired().size()!=2) {
+						return ExitCode.MISSING_ARGUMENT;
+					}
+					out.println(args.getRequired().get(0) + ">" + args.getRequired().get(1) + " " + args.getOptional());
+					return ExitCode.OK;
+				})
+				.prompt("")
+				.build();
+	}
+
+	@Test
+	public void testRun() {
+		CommandShell shell = newShell();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ExitCode ret = shell.run(new ByteArrayInputStream("copy a 'b c' -f\n\ncopy a\nexit\ncopy a b\n".getBytes(StandardCharsets.UTF_8)),
+				new PrintStream(os, true));
+		assertEquals(ExitCode.MISSING_ARGUMENT, ret);
+		String nl = System.lineSeparator();
+		assertEquals("a>b c {force=true}" + nl + "MISSING_ARGUMENT (11)" + nl, new String(os.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(Arrays.asList("copy a 'b c' -f", "copy a"), shell.getHistory());
+		assertEquals(2, shell.getLatencyStatistics("copy").getCount());
+		assertEquals(true, shell.getLastLatency(TimeUnit.NANOSECONDS)>0);
+	}
+
+	@Test
+	public void testUnknownCommand() {
+		CommandShell shell = newShell();
+		assertEquals(ExitCode.UNKNOWN_ARGUMENT, shell.execute("move a b", new PrintStream(new ByteArrayOutputStream())));
+	}
+
+	@Test
+	public void testComplete() {
+		CommandShell shell = newShell();
+		assertEquals(Arrays.asList("copy"), shell.complete("co"));
+		assertEquals(Arrays.asList("--force", "--table="), shell.complete("copy a --"));
+		assertEquals(Arrays.asList("--table=en", "--table=sv"), shell.complete("copy a --table="));
+	}
+
+	@Test
+	public void testCompleteShortForms() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getName()).thenReturn("copy");
+		CommandShell shell = new CommandShell.Builder()
+				.addCommand(CommandParser.create(details), (args, out) -> ExitCode.OK)
+				.addShortForms("copy", "table", new ShortFormResolver("org.daisy.table.sv", "org.daisy.table.en"))
+				.addShortForms("copy", 1, new ShortFormResolver("org.daisy.format.pef"))
+				.build();
+		assertEquals(Arrays.asList("--table=en", "--table=sv"), shell.complete("copy --table="));
+		assertEquals(Arrays.asList(), shell.complete("copy --other="));
+		// the first positional argument has no short forms
+		assertEquals(Arrays.asList(), shell.complete("copy p"));
+		assertEquals(Arrays.asList("pef"), shell.complete("copy --table=sv a p"));
+		assertEquals(Arrays.asList("copy"), shell.complete("help "));
+		assertEquals(Arrays.asList(), shell.complete("help copy "));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testShortFormsForUnknownCommand() {
+		new CommandShell.Builder().addShortForms("copy", 0, new ShortFormResolver("org.daisy.format.pef"));
+	}
+
+	@Test
+	public void testTokenize() {
+		assertEquals(Arrays.asList("a", "b c", "d\"e", "f g"), CommandShell.tokenize(" a \"b c\" d\\\"e f\\ g "));
+	}
+}
@@ -1,9 +1,19 @@
 package org.daisy.streamline.cli;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.daisy.streamline.cli.CommandParserResult;
 import org.daisy.streamline.cli.CommandParser;
@@ -52,6 +62,30 @@ public class DefaultCommandParserTest {
 		assertEquals("all", opts.get("delete"));
 	}
 
+	@Test
+	public void testSwitchProcessing_03() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getSwitches()).thenReturn(new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('c', "copy", "true", "Turns on copying."))
+				.addSwitch(new SwitchArgument('d', "delete", "all", "Delete originals."))
+				.addSwitch(new SwitchArgument('v', "verbose", "true", "Verbose output."))
+				.build());
+		CommandParser parser = new CommandParser.Builder(details)
+				.build();
+
+		CommandParserResult result = parser.parse(new String[]{"-cdv", "-cx"});
+
+		List<String> req = result.getRequired();
+		assertEquals(1, req.size());
+		assertEquals("-cx", req.get(0));
+
+		Map<String, String> opts = result.getOptional();
+		assertEquals(3, opts.size());
+		assertEquals("true", opts.get("copy"));
+		assertEquals("all", opts.get("delete"));
+		assertEquals("true", opts.get("verbose"));
+	}
+
 	@Test
 	public void testCommandParser_01() {
 		CommandDetails details = Mockito.mock(CommandDetails.class);
@@ -103,4 +137,206 @@ public class DefaultCommandParserTest {
 		assertEquals("value", opts.get("option"));
 	}
 
+	@Test
+	public void testCommandParser_04() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details).build();
+		CommandParserResult result = parser.parse(new String[]{"--include=a", "R1", "--option=value", "--include=b"});
+		assertEquals("b", result.getOptional().get("include"));
+		assertEquals(Arrays.asList("a", "b"), result.getOptionalValues("include"));
+		assertEquals(Arrays.asList("value"), result.getOptionalValues("option"));
+		assertEquals(0, result.getOptionalValues("other").size());
+		assertEquals(Arrays.asList("include", "option"), new ArrayList<>(result.getOptional().keySet()));
+	}
+
+	@Test
+	public void testToMap_01() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details).build();
+		CommandParserResult result = parser.parse(new String[]{"R1", "R2", "--option=value", "--required-1=override"});
+		Map<String, String> map = result.toMap("required-");
+		Map<String, String> expected = new HashMap<>();
+		expected.put("required-0", "R1");
+		expected.put("required-1", "override");
+		expected.put("option", "value");
+		assertEquals(expected, map);
+		assertEquals(3, map.size());
+		assertNull(map.get("required-01"));
+		assertNull(map.get("required-2"));
+		assertSame(map, result.toMap("required-"));
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testToMap_02() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details).build();
+		parser.parse(new String[]{"R1"}).toMap("required-").put("key", "value");
+	}
+
+	@Test
+	public void testToMap_03() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details).build();
+		CommandParserResult result = parser.parse(new String[]{"R1"});
+		Map<String, String> a = result.toMap("a-");
+		Map<String, String> b = result.toMap("b-");
+		assertEquals("R1", a.get("a-0"));
+		assertEquals("R1", b.get("b-0"));
+		assertNull(b.get("a-0"));
+		assertSame(a, result.toMap("a-"));
+		assertSame(b, result.toMap("b-"));
+	}
+
+	@Test
+	public void testInputArguments_01() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details)
+				.inputMarker("-")
+				.inputDelimiter('\0')
+				.input(new ByteArrayInputStream("a b\0c\0\0d".getBytes()))
+				.build();
+		CommandParserResult result = parser.parse(new String[]{"R1", "-", "--option=value"});
+		assertEquals(Arrays.asList("R1"), result.getRequired());
+		assertEquals(Arrays.asList("a b", "c", "d"), result.getInputArguments().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testInputArguments_02() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		CommandParser parser = new CommandParser.Builder(details)
+				.input(new ByteArrayInputStream("a\r\nb\n".getBytes()))
+				.build();
+		assertEquals(Arrays.asList("-"), parser.parse(new String[]{"-"}).getRequired());
+		parser = new CommandParser.Builder(details)
+				.inputMarker("-")
+				.input(new ByteArrayInputStream("a\r\nb\n".getBytes()))
+				.build();
+		assertEquals(Arrays.asList("a", "b"), parser.parse(new String[]{"-"}).getInputArguments().collect(Collectors.toList()));
+		assertEquals(0, parser.parse(new String[]{"R1"}).getInputArguments().count());
+	}
+
+	@Test
+	public void testInputArguments_03() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		StringBuilder sb = new StringBuilder();
+		List<String> expected = new ArrayList<>();
+		for (int i=0; i<5000; i++) {
+			expected.add("dir/file" + i + ".txt");
+			sb.append("dir/file").append(i).append(".txt\n");
+		}
+		CommandParser parser = new CommandParser.Builder(details)
+				.inputMarker("-")
+				.input(new ByteArrayInputStream(sb.toString().getBytes()))
+				.build();
+		// a reused parser continues where the previous result stopped reading
+		assertEquals(expected.subList(0, 1), parser.parse(new String[]{"-"}).getInputArguments().limit(1).collect(Collectors.toList()));
+		assertEquals(expected.subList(1, expected.size()), parser.parse(new String[]{"-"}).getInputArguments().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testHelpSearch() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getOptionalArguments()).thenReturn(Arrays.asList(
+				new OptionalArgument("table", "The braille table", Arrays.asList(
+						new Definition("sv_SE", "Swedish braille"),
+						new Definition("en_US", "US English braille")), "sv_SE"),
+				new OptionalArgument("width", "The page width", "32")));
+		Mockito.when(details.getSwitches()).thenReturn(new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('f', "force", "force", "true", "Overwrite existing files."))
+				.build());
+		CommandParser parser = new CommandParser.Builder(details).build();
+		String nl = System.lineSeparator();
+		assertEquals("\t--table=<value>" + nl
+				+ "\t\tThe braille table" + nl
+				+ "\t\tValues:" + nl
+				+ "\t\t\t'en_US'" + nl
+				+ "\t\t\t\tUS English braille" + nl + nl, help(parser, "engl"));
+		assertEquals("\t-f, --force" + nl
+				+ "\t\tOverwrite existing files." + nl + nl, help(parser, "FORCE"));
+		assertEquals("No matches for 'height'" + nl, help(parser, "height"));
+		assertEquals(2, help(parser, "the").split("--").length-1);
+	}
+
+	@Test
+	public void testSwitchesReadOnDemand() {
+		AtomicInteger calls = new AtomicInteger();
+		CommandDetails details = new CommandDetails() {
+			@Override
+			public String getName() {
+				return "test";
+			}
+
+			@Override
+			public String getDescription() {
+				return "Test";
+			}
+
+			@Override
+			public SwitchMap getSwitches() {
+				calls.incrementAndGet();
+				return new SwitchMap.Builder()
+						.addSwitch(new SwitchArgument('c', "copy", "true", "Turns on copying."))
+						.build();
+			}
+		};
+		CommandParser parser = CommandParser.create(details);
+		parser.parse(new String[]{"file.txt", "--width=10"});
+		assertEquals(0, calls.get());
+		assertEquals("true", parser.parse(new String[]{"-c"}).getOptional().get("copy"));
+		parser.parse(new String[]{"-c"});
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testConstraints() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		Mockito.when(details.getConstraints()).thenReturn(new OptionConstraints.Builder()
+				.mutuallyExclusive("table", "locale")
+				.requires("cols", "rows", "width")
+				.conditionalDefault("format", "pef", "table", "sv_SE")
+				.conditionalDefault("table", null, "mode", "braille")
+				.build());
+		CommandParser parser = new CommandParser.Builder(details).build();
+
+		CommandParserResult result = parser.parse(new String[]{"--format=pef"});
+		assertEquals("sv_SE", result.getOptional().get("table"));
+		assertEquals("braille", result.getOptional().get("mode"));
+		assertEquals(ExitCode.OK, parser.validate(result, new PrintStream(new ByteArrayOutputStream())));
+
+		result = parser.parse(new String[]{"--format=text"});
+		assertNull(result.getOptional().get("table"));
+
+		// the default for table isn't used, since locale is set
+		result = parser.parse(new String[]{"--format=pef", "--locale=en"});
+		assertNull(result.getOptional().get("table"));
+		assertNull(result.getOptional().get("mode"));
+		assertEquals(ExitCode.OK, parser.validate(result, new PrintStream(new ByteArrayOutputStream())));
+
+		result = parser.parse(new String[]{"--table=en_US", "--locale=en", "--cols=10", "--width=4"});
+		assertEquals(Arrays.asList(
+				"Options cannot be used together: table, locale",
+				"Option cols requires: rows"), parser.getViolations(result));
+		assertEquals(ExitCode.ARGUMENT_ERROR, parser.validate(result, new PrintStream(new ByteArrayOutputStream())));
+	}
+
+	@Test
+	public void testManyConstraints() {
+		CommandDetails details = Mockito.mock(CommandDetails.class);
+		OptionConstraints.Builder builder = new OptionConstraints.Builder();
+		for (int i=0; i<100; i++) {
+			builder.mutuallyExclusive("a" + i, "b" + i);
+		}
+		Mockito.when(details.getConstraints()).thenReturn(builder.build());
+		CommandParser parser = new CommandParser.Builder(details).build();
+		assertEquals(0, parser.getViolations(parser.parse(new String[]{"--a70=1", "--b71=1"})).size());
+		assertEquals(Arrays.asList("Options cannot be used together: a70, b70"),
+				parser.getViolations(parser.parse(new String[]{"--a70=1", "--b70=1"})));
+	}
+
+	private static String help(CommandParser parser, String term) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		parser.displayHelp(new PrintStream(os), term);
+		return new String(os.toByteArray());
+	}
+
 }
@@ -0,0 +1,58 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.MissingResourceException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class DefinitionTest {
+
+	@Test
+	public void testLazyDescription() {
+		AtomicInteger calls = new AtomicInteger();
+		Definition d = Definition.create("name", () -> {
+			calls.incrementAndGet();
+			return "desc";
+		});
+		assertEquals(0, calls.get());
+		assertEquals("desc", d.getDescription());
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testNullDescription() {
+		assertNull(new Definition("name", null).getDescription());
+		assertNull(new Argument("name", null, null).getDescription());
+		OptionalArgument o = new OptionalArgument("name", null, null, "default");
+		assertNull(o.getDescription());
+		assertEquals("default", o.getDefault());
+		assertNull(new SwitchArgument('c', null, "name", "value", null).getDescription());
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testNullSupplier() {
+		Argument.create("name", null, null);
+	}
+
+	@Test
+	public void testDescriptionBundle() {
+		DescriptionBundle bundle = new DescriptionBundle(DefinitionTest.class, "resource-files/descriptions.properties");
+		assertEquals("First implementation", Definition.create("impl1", bundle.get("impl1")).getDescription());
+	}
+
+	@Test
+	public void testCompressedDescriptionBundle() {
+		DescriptionBundle bundle = new DescriptionBundle(DefinitionTest.class, "resource-files/descriptions.properties.gz");
+		assertEquals("Second implementation, \u00e5", bundle.getDescription("impl2"));
+	}
+
+	@Test(expected=MissingResourceException.class)
+	public void testMissingKey() {
+		DescriptionBundle bundle = new DescriptionBundle(DefinitionTest.class, "resource-files/descriptions.properties");
+		Definition.create("impl3", bundle.get("impl3")).getDescription();
+	}
+}
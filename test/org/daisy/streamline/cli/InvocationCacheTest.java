@@ -0,0 +1,154 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+@SuppressWarnings("javadoc")
+public class InvocationCacheTest {
+	private Path dir;
+	private Path input;
+	private Path output;
+	private CommandParser parser;
+	private AtomicInteger runs;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("cache");
+		input = dir.resolve("input.txt");
+		output = dir.resolve("output.pef");
+		Files.write(input, "text".getBytes());
+		parser = CommandParser.create(Mockito.mock(CommandDetails.class));
+		runs = new AtomicInteger();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		TestFiles.deleteRecursively(dir);
+	}
+
+	private Supplier<ExitCode> job(ExitCode ret) {
+		return () -> {
+			runs.incrementAndGet();
+			try {
+				Files.write(output, ("out" + runs.get()).getBytes());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return ret;
+		};
+	}
+
+	@Test
+	public void testSkipUnchanged() throws IOException {
+		InvocationCache cache = new InvocationCache.Builder(dir.resolve("cache"), "test")
+				.addShortForms(new ShortFormResolver("org.daisy.table.sv"))
+				.build();
+		List<Path> outputs = Arrays.asList(output);
+		String[] args = new String[]{input.toString(), output.toString(), "--table=sv"};
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(1, runs.get());
+		// short forms are resolved before computing the key
+		assertEquals(cache.getKey(parser.parse(args), outputs),
+				cache.getKey(parser.parse(new String[]{input.toString(), output.toString(), "--table=org.daisy.table.sv"}), outputs));
+		// a changed input is not skipped
+		Files.write(input, "changed text".getBytes());
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(2, runs.get());
+		// a removed output is not skipped
+		Files.delete(output);
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(3, runs.get());
+	}
+
+	@Test
+	public void testFailureNotCached() {
+		InvocationCache cache = new InvocationCache.Builder(dir.resolve("cache"), "test").build();
+		List<Path> outputs = Arrays.asList(output);
+		String[] args = new String[]{input.toString(), output.toString()};
+		assertEquals(ExitCode.INTERNAL_ERROR, cache.run(parser.parse(args), outputs, job(ExitCode.INTERNAL_ERROR)));
+		assertEquals(ExitCode.INTERNAL_ERROR, cache.run(parser.parse(args), outputs, job(ExitCode.INTERNAL_ERROR)));
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void testNamespaces() {
+		InvocationCache text2pef = new InvocationCache.Builder(dir.resolve("cache"), "text2pef").build();
+		InvocationCache pef2text = new InvocationCache.Builder(dir.resolve("cache"), "pef2text").build();
+		List<Path> outputs = Arrays.asList(output);
+		String[] args = new String[]{input.toString(), output.toString()};
+		assertEquals(ExitCode.OK, text2pef.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		// the same arguments to another command in the same directory are not skipped
+		assertEquals(ExitCode.OK, pef2text.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void testInputArgumentsNotCached() {
+		InvocationCache cache = new InvocationCache.Builder(dir.resolve("cache"), "test").build();
+		CommandParser p = new CommandParser.Builder(Mockito.mock(CommandDetails.class))
+				.inputMarker("-")
+				.inputDelimiter('\n')
+				.input(new ByteArrayInputStream("a.txt\nb.txt\n".getBytes()))
+				.build();
+		List<Path> outputs = Arrays.asList(output);
+		List<String> read = new ArrayList<>();
+		// the runs differ only in the input arguments
+		for (int i=0; i<2; i++) {
+			CommandParserResult res = p.parse(new String[]{"-", output.toString()});
+			assertEquals(ExitCode.OK, cache.run(res, outputs, () -> {
+				read.add(res.getInputArguments().findFirst().get());
+				return job(ExitCode.OK).get();
+			}));
+		}
+		assertEquals(Arrays.asList("a.txt", "b.txt"), read);
+		assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void testDirectory() throws IOException {
+		Path in = Files.createDirectories(dir.resolve("in/sub"));
+		Files.write(in.resolve("1.txt"), "text".getBytes());
+		// the cache is in the directory as well
+		InvocationCache cache = new InvocationCache.Builder(dir.resolve("cache"), "test").build();
+		List<Path> outputs = Arrays.asList(output);
+		String[] args = new String[]{dir.toString(), output.toString()};
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(1, runs.get());
+		// a changed file in a sub-directory is not skipped
+		Files.write(in.resolve("1.txt"), "changed text".getBytes());
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(2, runs.get());
+		// nor is an added file
+		Files.write(in.resolve("2.txt"), "text".getBytes());
+		assertEquals(ExitCode.OK, cache.run(parser.parse(args), outputs, job(ExitCode.OK)));
+		assertEquals(3, runs.get());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		InvocationCache cache = new InvocationCache.Builder(dir.resolve("cache"), "test").maxSize(1).build();
+		List<Path> outputs = Arrays.asList(output);
+		cache.run(parser.parse(new String[]{input.toString(), output.toString()}), outputs, job(ExitCode.OK));
+		try (Stream<Path> entries = Files.list(dir.resolve("cache"))) {
+			assertEquals(0, entries.count());
+		}
+	}
+}
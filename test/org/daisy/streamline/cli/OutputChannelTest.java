@@ -0,0 +1,145 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class OutputChannelTest {
+
+	@Test
+	public void testOrderWithinThread() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try (OutputChannel out = new OutputChannel.Builder(os)
+				.charset(StandardCharsets.UTF_8)
+				.bufferSize(16)
+				.flushInterval(1, TimeUnit.MILLISECONDS)
+				.build()) {
+			for (int i=0; i<1000; i++) {
+				out.print(i + ",");
+			}
+		}
+		StringBuilder expected = new StringBuilder();
+		for (int i=0; i<1000; i++) {
+			expected.append(i).append(',');
+		}
+		assertEquals(expected.toString(), new String(os.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testFlush() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		OutputChannel out = new OutputChannel.Builder(os)
+				.charset(StandardCharsets.UTF_8)
+				.flushInterval(1, TimeUnit.HOURS)
+				.build();
+		IntStream.range(0, 100).parallel().forEach(i->out.println("line"));
+		out.flush();
+		assertEquals(100 * ("line" + System.lineSeparator()).length(), os.size());
+		out.close();
+	}
+
+	@Test(timeout=10000)
+	public void testFlushWhilePrinting() throws InterruptedException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		OutputChannel out = new OutputChannel.Builder(os)
+				.charset(StandardCharsets.UTF_8)
+				.capacity(100)
+				.build();
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		for (int i=0; i<4; i++) {
+			producers.execute(()->{
+				while (running.get()) {
+					out.print("x");
+				}
+			});
+		}
+		try {
+			Thread.sleep(100);
+			out.print("marker");
+			// returns although the producers keep printing
+			out.flush();
+			assertTrue(new String(os.toByteArray(), StandardCharsets.UTF_8).contains("marker"));
+		} finally {
+			running.set(false);
+			producers.shutdown();
+			assertTrue(producers.awaitTermination(5, TimeUnit.SECONDS));
+			out.close();
+		}
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testClosed() {
+		OutputChannel out = new OutputChannel.Builder(new ByteArrayOutputStream()).build();
+		out.close();
+		out.print("text");
+	}
+
+	private static OutputStream failing(RuntimeException e) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				if (e!=null) {
+					throw e;
+				}
+				throw new IOException("Disk full");
+			}
+		};
+	}
+
+	@Test(timeout=10000)
+	public void testWriteFails() {
+		OutputChannel out = new OutputChannel.Builder(failing(null))
+				.capacity(4)
+				.build();
+		// more than the capacity, which must not block when writing fails
+		for (int i=0; i<100; i++) {
+			out.println("line");
+		}
+		try {
+			out.flush();
+			fail();
+		} catch (UncheckedIOException e) {
+			assertEquals("Disk full", e.getCause().getMessage());
+		}
+		try {
+			out.close();
+			fail();
+		} catch (UncheckedIOException e) {
+			// expected
+		}
+	}
+
+	@Test(timeout=10000)
+	public void testWriteFailsUnchecked() {
+		RuntimeException ex = new RuntimeException("Failed");
+		OutputChannel out = new OutputChannel.Builder(failing(ex))
+				.capacity(4)
+				.flushInterval(1, TimeUnit.MILLISECONDS)
+				.build();
+		for (int i=0; i<100; i++) {
+			out.println("line");
+		}
+		try {
+			out.close();
+			fail();
+		} catch (IllegalStateException e) {
+			assertSame(ex, e.getCause());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PathExpanderTest {
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("expander");
+		Files.createDirectories(dir.resolve("a/b"));
+		Files.createFile(dir.resolve("1.pef"));
+		Files.createFile(dir.resolve("2.xml"));
+		Files.createFile(dir.resolve("a/3.pef"));
+		Files.createFile(dir.resolve("a/b/4.pef"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		TestFiles.deleteRecursively(dir);
+	}
+
+	@Test
+	public void testDirectory() {
+		PathExpander expander = new PathExpander.Builder().sorted(true).build();
+		List<String> actual = expander.expand(Arrays.asList("first", dir.resolve("a").toString(), "last")).collect(Collectors.toList());
+		assertEquals(Arrays.asList("first", dir.resolve("a/3.pef").toString(), dir.resolve("a/b/4.pef").toString(), "last"), actual);
+	}
+
+	@Test
+	public void testGlob() {
+		PathExpander expander = new PathExpander.Builder().sorted(true).build();
+		List<String> actual = expander.expand(Arrays.asList(dir.toString() + "/*.pef")).collect(Collectors.toList());
+		assertEquals(Arrays.asList(dir.resolve("1.pef").toString()), actual);
+	}
+
+	@Test
+	public void testGlobRecursive() {
+		PathExpander expander = new PathExpander.Builder().bufferSize(1).build();
+		List<String> actual = expander.expand(Arrays.asList(dir.toString() + "/**.pef")).sorted().collect(Collectors.toList());
+		assertEquals(Arrays.asList(dir.resolve("1.pef").toString(), dir.resolve("a/3.pef").toString(), dir.resolve("a/b/4.pef").toString()), actual);
+	}
+
+	@Test
+	public void testExistingFileWithGlobCharacters() throws IOException {
+		Path file = Files.createFile(dir.resolve("Book [2nd ed].xml"));
+		PathExpander expander = PathExpander.create();
+		List<String> actual = expander.expand(Arrays.asList(file.toString())).collect(Collectors.toList());
+		assertEquals(Arrays.asList(file.toString()), actual);
+	}
+
+	@Test
+	public void testGlobWithoutMatches() {
+		PathExpander expander = new PathExpander.Builder().sorted(true).build();
+		String arg = dir.toString() + "/*.txt";
+		List<String> actual = expander.expand(Arrays.asList(arg)).collect(Collectors.toList());
+		assertEquals(Arrays.asList(arg), actual);
+	}
+
+	@Test
+	public void testNotAPattern() {
+		PathExpander expander = PathExpander.create();
+		List<String> args = Arrays.asList("http://example.com/x?q=1", dir.toString() + "/missing/*.pef", "table[1]", "what?", "{");
+		List<String> actual = expander.expand(args).collect(Collectors.toList());
+		assertEquals(args, actual);
+	}
+
+	@Test
+	public void testSlowConsumer() throws InterruptedException {
+		PathExpander expander = new PathExpander.Builder().bufferSize(1).timeout(500, TimeUnit.MILLISECONDS).build();
+		Iterator<String> it = expander.expand(dir.toString()).iterator();
+		int count = 0;
+		// in total, consuming takes longer than the timeout
+		while (it.hasNext()) {
+			it.next();
+			count++;
+			Thread.sleep(200);
+		}
+		assertEquals(4, count);
+	}
+
+	@Test(expected=UncheckedIOException.class)
+	public void testAbandonedStream() throws InterruptedException {
+		PathExpander expander = new PathExpander.Builder().bufferSize(1).timeout(100, TimeUnit.MILLISECONDS).build();
+		// a single argument, since flatMap may consume the inner stream all at once
+		Iterator<String> it = expander.expand(dir.toString()).iterator();
+		it.next();
+		// the traversal gives up while waiting for the stream to be consumed
+		Thread.sleep(1000);
+		while (it.hasNext()) {
+			it.next();
+		}
+	}
+}
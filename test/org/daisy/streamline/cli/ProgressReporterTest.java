@@ -0,0 +1,53 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ProgressReporterTest {
+
+	@Test
+	public void testProgress() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ProgressReporter progress = new ProgressReporter.Builder()
+				.label("Test")
+				.total(1000)
+				.interactive(false)
+				.interval(10, TimeUnit.MILLISECONDS)
+				.output(new PrintStream(os, true))
+				.build();
+		IntStream.range(0, 1000).parallel().forEach(i->{
+			if (i%100==0) {
+				progress.failed();
+			} else {
+				progress.completed();
+			}
+		});
+		assertEquals(990, progress.getCompleted());
+		assertEquals(10, progress.getFailed());
+		assertEquals(ExitCode.RESOURCE_ERROR, progress.finish());
+		assertEquals(ExitCode.RESOURCE_ERROR, progress.finish());
+		String[] lines = new String(os.toByteArray(), StandardCharsets.UTF_8).split("\\r?\\n");
+		assertTrue(lines[lines.length-1].startsWith("Test: 990 completed, 10 failed in "));
+	}
+
+	@Test
+	public void testNoFailures() {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try (ProgressReporter progress = new ProgressReporter.Builder()
+				.interactive(true)
+				.output(new PrintStream(os, true))
+				.build()) {
+			progress.completed(5);
+			assertEquals(ExitCode.OK, progress.finish());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.daisy.streamline.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ShortFormCacheTest {
+
+	@Test
+	public void testResolve() {
+		ShortFormCache cache = new ShortFormCache(new ShortFormResolver("org.daisy.braille.cli.impl1"), 10);
+		assertEquals("org.daisy.braille.cli.impl1", cache.resolve("impl1"));
+		assertEquals("org.daisy.braille.cli.impl1", cache.resolve("impl1"));
+		assertNull(cache.resolve("impl2"));
+		assertNull(cache.resolve("impl2"));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testBounded() {
+		ShortFormCache cache = new ShortFormCache(new ShortFormResolver("a.b.c"), 100);
+		IntStream.range(0, 10000).parallel().forEach(i->cache.resolve("x" + i));
+		assertTrue(cache.size()<=100);
+		assertEquals(10000, cache.getHitCount()+cache.getMissCount());
+	}
+
+	@Test
+	public void testExpandShortForms() {
+		ShortFormCache cache = new ShortFormCache(new ShortFormResolver("org.daisy.braille.cli.impl1"), 10);
+		Map<String, String> map = new HashMap<>();
+		map.put("table", "impl1");
+		map.put("format", "impl2");
+		Map<String, String> expanded = cache.expandShortForms(map, Arrays.asList("table"));
+		assertEquals("org.daisy.braille.cli.impl1", expanded.get("table"));
+		assertEquals("impl2", expanded.get("format"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testExpandShortFormsUnresolved() {
+		ShortFormCache cache = new ShortFormCache(new ShortFormResolver("org.daisy.braille.cli.impl1"), 10);
+		Map<String, String> map = new HashMap<>();
+		map.put("format", "impl2");
+		cache.expandShortForms(map, map.keySet());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testExpandShortFormUnresolved() {
+		ShortFormCache cache = new ShortFormCache(new ShortFormResolver("org.daisy.braille.cli.impl1"), 10);
+		Map<String, String> map = new HashMap<>();
+		map.put("format", "impl2");
+		cache.expandShortForm(map, "format");
+	}
+}
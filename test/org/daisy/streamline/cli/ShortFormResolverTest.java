@@ -3,6 +3,14 @@ package org.daisy.streamline.cli;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.daisy.streamline.cli.ShortFormResolver;
 
 @SuppressWarnings("javadoc")
@@ -18,4 +26,78 @@ public class ShortFormResolverTest {
 		assertEquals(id1, sf.resolve("impl1"));
 		assertEquals(id2, sf.resolve("impl2"));
 	}
+
+	@Test
+	public void testShortFormResolver_02() {
+		String id1 = "org.daisy.braille.cli.Impl1";
+		String id2 = "org.daisy.braille.other.impl1";
+		String id3 = "org.daisy.braille.cli.impl3";
+		ShortFormResolver sf = new ShortFormResolver(id1, id2, id3);
+		assertEquals("org.daisy.braille.cli.impl1", sf.getShortForm(id1));
+		assertEquals("org.daisy.braille.other.impl1", sf.getShortForm(id2));
+		assertEquals("impl3", sf.getShortForm(id3));
+		assertNull(sf.getShortForm("org.daisy.braille.cli.impl4"));
+		assertEquals(id1, sf.resolve("ORG.daisy.braille.cli.impl1"));
+		assertEquals(id3, sf.resolve("Impl3"));
+		assertNull(sf.resolve("impl1"));
+		assertEquals(Arrays.asList("impl3", "org.daisy.braille.cli.impl1", "org.daisy.braille.other.impl1"), sf.getShortForms());
+	}
+
+	@Test
+	public void testExpandShortForm() {
+		ShortFormResolver sf = new ShortFormResolver("org.daisy.braille.cli.impl1");
+		Map<String, String> map = new HashMap<>();
+		map.put("table", "impl1");
+		sf.expandShortForm(map, "table");
+		assertEquals("org.daisy.braille.cli.impl1", map.get("table"));
+	}
+
+	@Test
+	public void testExpandShortForms() {
+		ShortFormResolver sf = new ShortFormResolver("org.daisy.braille.cli.impl1", "org.daisy.braille.cli.impl2");
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("table", "impl1");
+		map.put("format", "impl2");
+		map.put("mode", "other");
+		// a read-only map can be used
+		Map<String, String> expanded = sf.expandShortForms(Collections.unmodifiableMap(map), Arrays.asList("table", "format", "missing"));
+		assertEquals(Arrays.asList("table", "format", "mode"), new ArrayList<>(expanded.keySet()));
+		assertEquals("org.daisy.braille.cli.impl1", expanded.get("table"));
+		assertEquals("org.daisy.braille.cli.impl2", expanded.get("format"));
+		assertEquals("other", expanded.get("mode"));
+		assertEquals("impl1", map.get("table"));
+	}
+
+	@Test
+	public void testExpandShortFormsUnresolved() {
+		ShortFormResolver sf = new ShortFormResolver("org.daisy.braille.cli.impl1", "org.daisy.braille.cli.impl2");
+		Map<String, String> map = new HashMap<>();
+		map.put("table", "impl1");
+		map.put("format", "impl3");
+		map.put("mode", "impl4");
+		try {
+			sf.expandShortForms(map, Arrays.asList("table", "format", "missing", "mode"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// reported together, in the order of the keys
+			assertEquals("Unknown values for format: 'impl3', mode: 'impl4'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testParallelConstruction() {
+		List<String> ids = new ArrayList<>();
+		for (int i=0; i<20000; i++) {
+			ids.add("org.daisy.Impl" + (i % 7) + ".table" + (i % 13000) + (i % 5==0?".":""));
+		}
+		ShortFormResolver sequential = new ShortFormResolver(ids, false);
+		ShortFormResolver parallel = new ShortFormResolver(ids, true);
+		assertEquals(sequential.getShortForms(), parallel.getShortForms());
+		for (String id : ids) {
+			assertEquals(sequential.getShortForm(id), parallel.getShortForm(id));
+		}
+		for (String s : sequential.getShortForms()) {
+			assertEquals(sequential.resolve(s), parallel.resolve(s));
+		}
+	}
 }